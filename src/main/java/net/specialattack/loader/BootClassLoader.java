@@ -1,32 +1,72 @@
 package net.specialattack.loader;
 
+import net.specialattack.loader.asm.ClassMetadataReader;
+import net.specialattack.loader.cache.ClassBytesCache;
+import net.specialattack.loader.cache.TransformedClassCache;
+import net.specialattack.loader.jar.JarArchive;
+import net.specialattack.loader.management.BootProfile;
+import net.specialattack.loader.management.ClassLoaderMetrics;
+import net.specialattack.loader.management.TimingHistogram;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
 import sun.misc.IOUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
+import java.util.regex.Pattern;
 
 public class BootClassLoader extends URLClassLoader {
 
     public static final boolean CLASSLOADER_DEBUGGING = Boolean.parseBoolean(System.getProperty("bootloader.classloaderDebugging", "false"));
+    private static final int INSPECT_SPLIT_THRESHOLD = 64;
+    private static final int LOADER_EXCEPTION = 1;
+    private static final int TRANSFORMER_EXCEPTION = 2;
     private ClassLoader parent = this.getClass().getClassLoader();
     private List<URL> jars;
-    private Map<String, Class<?>> classCache = new HashMap<String, Class<?>>();
-    private Map<String, byte[]> classBytesCache = new HashMap<String, byte[]>();
-    private Set<String> missingClasses = new HashSet<String>();
-    private Set<String> badClasses = new HashSet<String>();
-    private Set<String> loaderExceptions = new HashSet<String>();
-    private Set<String> transformerExceptions = new HashSet<String>();
-    private Set<IClassTransformer> classTransformers = new HashSet<IClassTransformer>();
-    private Set<IClassInspector> classInspectors = new HashSet<IClassInspector>();
+    private Map<String, Class<?>> classCache = new ConcurrentHashMap<String, Class<?>>();
+    private volatile ClassBytesCache classBytesCache = new ClassBytesCache(ClassBytesCache.Policy.DISCARD, 0);
+    private Set<String> missingClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> badClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile PrefixTrie exceptions = new PrefixTrie();
+    private List<TransformerEntry> classTransformers = new CopyOnWriteArrayList<TransformerEntry>();
+    private Set<IClassInspector> classInspectors = new CopyOnWriteArraySet<IClassInspector>();
+    private Set<IClassMetadataInspector> metadataInspectors = new CopyOnWriteArraySet<IClassMetadataInspector>();
+    private File classCacheFolder;
+    private volatile TransformedClassCache transformedCache;
+    private volatile boolean transformedCacheChecked;
+    private Map<URL, JarArchive> archives = new HashMap<URL, JarArchive>();
+    private Map<String, byte[]> scannedBytes = new ConcurrentHashMap<String, byte[]>();
+    private volatile boolean scanPipeline;
+    private volatile boolean scanned;
+    // Dropped whenever transformers or their targets change, so looking up a class never checks for changes
+    private volatile TransformerIndex transformerIndex;
+    private final Object transformerIndexLock = new Object();
+    private int transformerIndexGeneration;
+    private volatile BootProfile profile;
+    private final ClassLoaderMetrics metrics = new ClassLoaderMetrics(this);
+
+    static {
+        // Classes are locked by name rather than by loader, see getClassLoadingLock
+        ClassLoader.registerAsParallelCapable();
+    }
 
     public BootClassLoader(URL[] jars) {
         super(jars, BootClassLoader.class.getClassLoader());
-        this.jars = new ArrayList<URL>(Arrays.asList(jars));
+        this.jars = new CopyOnWriteArrayList<URL>(Arrays.asList(jars));
 
         this.addLoaderException("java.");
         this.addLoaderException("sun.");
@@ -45,21 +85,47 @@ public class BootClassLoader extends URLClassLoader {
         if (CLASSLOADER_DEBUGGING) {
             System.out.println("Adding class loader exception " + path);
         }
-        this.loaderExceptions.add(path);
+        synchronized (this) {
+            this.exceptions = this.exceptions.with(path, LOADER_EXCEPTION);
+        }
     }
 
     public void addTransformerException(String path) {
         if (CLASSLOADER_DEBUGGING) {
             System.out.println("Adding transformer exception " + path);
         }
-        this.transformerExceptions.add(path);
+        synchronized (this) {
+            this.exceptions = this.exceptions.with(path, TRANSFORMER_EXCEPTION);
+        }
     }
 
     public void addClassTransformer(IClassTransformer transformer) {
         if (CLASSLOADER_DEBUGGING) {
             System.out.println("Adding class transformer " + transformer.getClass());
         }
-        this.classTransformers.add(transformer);
+        this.addTransformerEntry(new TransformerEntry(transformer, null));
+    }
+
+    public void addClassTransformer(IClassNodeTransformer transformer) {
+        if (CLASSLOADER_DEBUGGING) {
+            System.out.println("Adding class node transformer " + transformer.getClass());
+        }
+        this.addTransformerEntry(new TransformerEntry(null, transformer));
+    }
+
+    private synchronized void addTransformerEntry(TransformerEntry entry) {
+        for (TransformerEntry existing : this.classTransformers) {
+            if (existing.getTransformer() == entry.getTransformer()) {
+                return;
+            }
+        }
+        entry.timings = this.metrics.getTransformerHistogram(entry.getTransformer().getClass().getName());
+        this.classTransformers.add(entry);
+        if (entry.getTargets() != null) {
+            entry.getTargets().addLoader(this);
+        }
+        this.invalidateTransformerIndex();
+        this.invalidateTransformedCache();
     }
 
     public void addClassInspector(IClassInspector inspector) {
@@ -69,15 +135,204 @@ public class BootClassLoader extends URLClassLoader {
         this.classInspectors.add(inspector);
     }
 
+    public void addClassInspector(IClassMetadataInspector inspector) {
+        if (CLASSLOADER_DEBUGGING) {
+            System.out.println("Adding class metadata inspector " + inspector.getClass());
+        }
+        this.metadataInspectors.add(inspector);
+    }
+
+    public void setClassBytesCache(ClassBytesCache cache) {
+        if (CLASSLOADER_DEBUGGING) {
+            System.out.println("Using class bytes cache " + cache);
+        }
+        this.classBytesCache = cache;
+    }
+
+    public ClassBytesCache getClassBytesCache() {
+        return this.classBytesCache;
+    }
+
+    /**
+     * When enabled, bytes of classes retained during discovery are handed straight to the transform and define stage
+     * instead of being read from the jar again.
+     */
+    public void setScanPipeline(boolean scanPipeline) {
+        this.scanPipeline = scanPipeline;
+        if (!scanPipeline) {
+            this.scannedBytes.clear();
+        }
+    }
+
+    /**
+     * Records the time spent reading, inspecting, transforming and defining classes into the given profile.
+     */
+    public void setBootProfile(BootProfile profile) {
+        this.profile = profile;
+    }
+
+    public BootProfile getBootProfile() {
+        return this.profile;
+    }
+
+    public ClassLoaderMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    public void setClassCacheFolder(File folder) {
+        if (CLASSLOADER_DEBUGGING) {
+            System.out.println("Using class cache folder " + folder);
+        }
+        this.classCacheFolder = folder;
+        this.invalidateTransformedCache();
+    }
+
     @Override
     protected void addURL(URL url) {
         this.jars.add(url);
         super.addURL(url);
+        this.invalidateTransformedCache();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.invalidateTransformedCache();
+        synchronized (this.archives) {
+            for (JarArchive archive : this.archives.values()) {
+                Util.close(archive);
+            }
+            this.archives.clear();
+        }
+        super.close();
+    }
+
+    /**
+     * Returns the random access view of a jar, or null if the jar can only be read through its URL.
+     */
+    private JarArchive getArchive(URL jar) {
+        synchronized (this.archives) {
+            if (this.archives.containsKey(jar)) {
+                return this.archives.get(jar);
+            }
+
+            JarArchive archive = null;
+            if ("file".equals(jar.getProtocol())) {
+                try {
+                    archive = JarArchive.open(new File(jar.toURI()));
+                } catch (IOException e) {
+                    if (CLASSLOADER_DEBUGGING) {
+                        System.out.println("Reading " + jar + " through its URL: " + e.getMessage());
+                    }
+                } catch (URISyntaxException e) {
+                }
+            }
+            this.archives.put(jar, archive);
+            return archive;
+        }
+    }
+
+    private synchronized void invalidateTransformedCache() {
+        if (this.transformedCache != null) {
+            this.transformedCache.close();
+            this.transformedCache = null;
+        }
+        this.transformedCacheChecked = false;
+    }
+
+    private TransformedClassCache getTransformedCache() {
+        if (this.transformedCacheChecked) {
+            return this.transformedCache;
+        }
+        return this.openTransformedCache();
+    }
+
+    private synchronized TransformedClassCache openTransformedCache() {
+        if (this.transformedCacheChecked) {
+            return this.transformedCache;
+        }
+        this.transformedCacheChecked = true;
+
+        if (this.classCacheFolder == null) {
+            return null;
+        }
+
+        // The key covers the contents of every jar and the identity of every transformer, in order
+        StringBuilder key = new StringBuilder();
+        String name = null;
+        try {
+            for (URL jar : this.jars) {
+                if (!"file".equals(jar.getProtocol())) {
+                    return null;
+                }
+                File jarFile = new File(jar.toURI());
+                if (name == null) {
+                    name = jarFile.getName().endsWith(".jar") ? jarFile.getName().substring(0, jarFile.getName().length() - 4) : jarFile.getName();
+                }
+                key.append(Util.sha1(jarFile)).append('\n');
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+            return null;
+        }
+        for (TransformerEntry entry : this.classTransformers) {
+            Object transformer = entry.getTransformer();
+            if (!(transformer instanceof ICacheableTransformer)) {
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Not using class cache, " + transformer.getClass() + " is not cacheable");
+                }
+                return null;
+            }
+            key.append(transformer.getClass().getName()).append(':').append(((ICacheableTransformer) transformer).getFingerprint()).append('\n');
+        }
+
+        if (name == null) {
+            name = "classes";
+        }
+        File file = new File(this.classCacheFolder, name + "-" + Util.sha1(key.toString()) + ".cache");
+        this.deleteOldTransformedCaches(name, file);
+        try {
+            this.transformedCache = new TransformedClassCache(file);
+            if (CLASSLOADER_DEBUGGING) {
+                System.out.println("Opened class cache " + file);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed opening class cache " + file);
+            e.printStackTrace();
+        }
+        return this.transformedCache;
+    }
+
+    /**
+     * Deletes the caches of earlier versions of the jar or its transformers, and caches named without the jar, they
+     * are never opened again.
+     */
+    private void deleteOldTransformedCaches(String name, File current) {
+        Pattern pattern = Pattern.compile("(" + Pattern.quote(name) + "-)?[0-9a-f]{40}\\.cache");
+        File[] files = this.classCacheFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().equals(current.getName()) && pattern.matcher(file.getName()).matches()) {
+                if (file.delete()) {
+                    if (CLASSLOADER_DEBUGGING) {
+                        System.out.println("Deleted old class cache " + file);
+                    }
+                } else {
+                    System.err.println("Failed deleting old class cache " + file);
+                }
+            }
+        }
     }
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
+        this.metrics.findClassCalls.increment();
         if (this.badClasses.contains(name)) {
+            this.metrics.negativeHits.increment();
             throw new ClassNotFoundException(name);
         }
 
@@ -85,69 +340,104 @@ public class BootClassLoader extends URLClassLoader {
             System.out.println("Attempting to find class " + name);
         }
 
-        for (String exception : this.loaderExceptions) {
-            if (name.startsWith(exception)) {
-                if (CLASSLOADER_DEBUGGING) {
-                    System.out.println("Delegating to parent classloader");
-                }
-
-                return this.parent.loadClass(name);
+        int exception = this.exceptions.match(name);
+        if ((exception & LOADER_EXCEPTION) != 0) {
+            if (CLASSLOADER_DEBUGGING) {
+                System.out.println("Delegating to parent classloader");
             }
+            this.metrics.parentDelegations.increment();
+
+            return this.parent.loadClass(name);
         }
 
-        if (this.classCache.containsKey(name)) {
+        Class<?> cached = this.classCache.get(name);
+        if (cached != null) {
             if (CLASSLOADER_DEBUGGING) {
                 System.out.println("Found class in cache");
             }
+            this.metrics.classCacheHits.increment();
 
-            return this.classCache.get(name);
+            return cached;
         }
 
-        for (String exception : this.transformerExceptions) {
-            if (name.startsWith(exception)) {
-                if (CLASSLOADER_DEBUGGING) {
-                    System.out.println("Loading without transforming");
-                }
-
-                try {
-                    Class<?> clazz = super.findClass(name);
-                    this.classCache.put(name, clazz);
-                    return clazz;
-                } catch (ClassNotFoundException e) {
-                    this.badClasses.add(name);
-                    throw e;
-                }
+        // findClass is also called directly, so it has to take the lock loadClass would have taken
+        synchronized (this.getClassLoadingLock(name)) {
+            cached = this.classCache.get(name);
+            if (cached != null) {
+                this.metrics.classCacheHits.increment();
+                return cached;
+            }
+            if (this.badClasses.contains(name)) {
+                this.metrics.negativeHits.increment();
+                throw new ClassNotFoundException(name);
             }
-        }
 
-        byte[] bytes = this.findBytes(name);
+            return this.findClassLocked(name, (exception & TRANSFORMER_EXCEPTION) != 0);
+        }
+    }
 
-        if (bytes == null) {
-            this.badClasses.add(name);
+    private Class<?> findClassLocked(String name, boolean untransformed) throws ClassNotFoundException {
+        if (untransformed) {
             if (CLASSLOADER_DEBUGGING) {
-                System.out.println("Could not find bytes");
+                System.out.println("Loading without transforming");
+            }
+
+            try {
+                Class<?> clazz = super.findClass(name);
+                this.classCache.put(name, clazz);
+                return clazz;
+            } catch (ClassNotFoundException e) {
+                this.badClasses.add(name);
+                throw e;
             }
-            throw new ClassNotFoundException(name);
         }
 
-        for (IClassTransformer transformer : this.classTransformers) {
+        TransformedClassCache cache = this.getTransformedCache();
+        byte[] bytes = cache != null ? cache.get(name) : null;
+
+        if (bytes != null) {
             if (CLASSLOADER_DEBUGGING) {
-                System.out.println("Transforming class with " + transformer);
-                System.out.println("Before: " + bytes.length);
+                System.out.println("Found transformed class in class cache");
             }
 
-            bytes = transformer.transform(name, bytes);
-            if (CLASSLOADER_DEBUGGING) {
-                System.out.println("After: " + bytes.length);
+            this.scannedBytes.remove(name);
+            long start = System.nanoTime();
+            for (TransformerEntry entry : this.classTransformers) {
+                ((ICacheableTransformer) entry.getTransformer()).restore(name, bytes);
+            }
+            this.record(BootProfile.CACHE_RESTORE, start);
+        } else {
+            long start = System.nanoTime();
+            bytes = this.findBytes(name);
+            this.record(BootProfile.READ, start);
+
+            if (bytes == null) {
+                this.badClasses.add(name);
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Could not find bytes");
+                }
+                throw new ClassNotFoundException(name);
+            }
+
+            start = System.nanoTime();
+            bytes = this.transform(name, bytes);
+            this.record(BootProfile.TRANSFORM, start);
+
+            if (cache != null) {
+                cache.put(name, bytes);
             }
         }
 
         Class<?> result;
+        long start = System.nanoTime();
         try {
             result = this.defineClass(name, bytes, 0, bytes.length);
         } catch (Throwable e) {
             throw new ClassNotFoundException(name, e);
         }
+        this.record(BootProfile.DEFINE, start);
+        this.metrics.classesDefined.increment();
+        this.metrics.bytesDefined.add(bytes.length);
 
         if (result == null) {
             if (CLASSLOADER_DEBUGGING) {
@@ -165,30 +455,166 @@ public class BootClassLoader extends URLClassLoader {
         return result;
     }
 
+    private void record(String activity, long start) {
+        BootProfile profile = this.profile;
+        if (profile != null) {
+            profile.recordActivity(activity, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs the class through every transformer in registration order. Byte transformers get and return bytes,
+     * consecutive node transformers share a single parse and the result is only written when one of them changed it.
+     */
+    private byte[] transform(String name, byte[] bytes) {
+        List<TransformerEntry> transformers = this.getTransformerIndex().lookup(name);
+        if (transformers.isEmpty()) {
+            if (CLASSLOADER_DEBUGGING) {
+                System.out.println("No transformers target this class");
+            }
+            return bytes;
+        }
+
+        ClassNode node = null;
+        boolean changed = false;
+
+        for (TransformerEntry entry : transformers) {
+            if (entry.node != null) {
+                if (!entry.node.wantsClass(name)) {
+                    continue;
+                }
+                if (node == null) {
+                    node = new ClassNode();
+                    new ClassReader(bytes).accept(node, 0);
+                }
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Transforming class node with " + entry.node);
+                }
+                long start = System.nanoTime();
+                if (entry.node.transform(name, node)) {
+                    changed = true;
+                }
+                entry.timings.record(System.nanoTime() - start);
+            } else {
+                if (node != null) {
+                    if (changed) {
+                        bytes = writeClass(node);
+                    }
+                    node = null;
+                    changed = false;
+                }
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Transforming class with " + entry.bytes);
+                    System.out.println("Before: " + bytes.length);
+                }
+
+                long start = System.nanoTime();
+                bytes = entry.bytes.transform(name, bytes);
+                entry.timings.record(System.nanoTime() - start);
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("After: " + bytes.length);
+                }
+            }
+        }
+
+        if (node != null && changed) {
+            bytes = writeClass(node);
+        }
+        return bytes;
+    }
+
+    private TransformerIndex getTransformerIndex() {
+        TransformerIndex index = this.transformerIndex;
+        if (index != null) {
+            return index;
+        }
+        int generation;
+        synchronized (this.transformerIndexLock) {
+            generation = this.transformerIndexGeneration;
+        }
+        index = new TransformerIndex(new ArrayList<TransformerEntry>(this.classTransformers), this.scanned);
+        synchronized (this.transformerIndexLock) {
+            // Something changed while building, the next lookup builds again
+            if (generation == this.transformerIndexGeneration) {
+                this.transformerIndex = index;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Called when a transformer is added, targets of a transformer change or discovery finished.
+     */
+    void invalidateTransformerIndex() {
+        synchronized (this.transformerIndexLock) {
+            this.transformerIndexGeneration++;
+            this.transformerIndex = null;
+        }
+    }
+
+    private static byte[] writeClass(ClassNode node) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+
     private byte[] findBytes(String name) {
         if (this.missingClasses.contains(name)) {
+            this.metrics.negativeHits.increment();
             return null;
         }
-        if (this.classBytesCache.containsKey(name)) {
-            return this.classBytesCache.get(name);
+        byte[] cached = this.scannedBytes.remove(name);
+        if (cached != null) {
+            if (CLASSLOADER_DEBUGGING) {
+                System.out.println("Using bytes read during discovery");
+            }
+            this.classBytesCache.put(name, cached);
+            return cached;
+        }
+        cached = this.classBytesCache.get(name);
+        if (cached != null) {
+            return cached;
         }
 
-        InputStream in = null;
+        String resource = name.replace('.', '/').concat(".class");
         try {
-            String resource = name.replace('.', '/').concat(".class");
-            URL url = this.findResource(resource);
+            byte[] data = null;
+            for (URL jar : this.jars) {
+                JarArchive archive = this.getArchive(jar);
+                if (archive == null) {
+                    data = this.readResource(resource);
+                    break;
+                }
+                JarArchive.Entry entry = archive.getEntry(resource);
+                if (entry != null) {
+                    data = archive.read(entry);
+                    break;
+                }
+            }
 
-            if (url == null) {
+            if (data == null) {
                 this.missingClasses.add(name);
                 return null;
             }
 
-            in = url.openStream();
-            byte[] data = IOUtils.readFully(in, -1, true);
+            this.metrics.bytesRead.add(data.length);
             this.classBytesCache.put(name, data);
             return data;
         } catch (IOException e) {
             return null;
+        }
+    }
+
+    private byte[] readResource(String resource) throws IOException {
+        URL url = this.findResource(resource);
+        if (url == null) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = url.openStream();
+            return IOUtils.readFully(in, -1, true);
         } finally {
             Util.close(in);
         }
@@ -196,39 +622,166 @@ public class BootClassLoader extends URLClassLoader {
 
     public void inspectAllClasses() {
         for (URL jarUrl : this.jars) {
-            if (CLASSLOADER_DEBUGGING) {
-                System.out.println("Inspecting " + jarUrl);
-            }
-
-            JarInputStream in = null;
-
-            try {
-                in = new JarInputStream(jarUrl.openStream());
+            JarArchive archive = this.getArchive(jarUrl);
+            if (archive != null) {
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Inspecting " + jarUrl);
+                }
 
-                JarEntry entry = null;
-                while ((entry = in.getNextJarEntry()) != null) {
+                for (JarArchive.Entry entry : archive.getEntries()) {
                     String name = entry.getName();
                     if (name.endsWith(".class")) {
-                        if (CLASSLOADER_DEBUGGING) {
-                            System.out.println("Inspecting class file " + name);
+                        try {
+                            byte[] data = archive.read(entry);
+                            this.metrics.bytesRead.add(data.length);
+                            this.inspect(toClassName(name), data, false);
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
+                    }
+                }
+            } else {
+                this.readAllClasses(jarUrl, null, null);
+            }
+        }
+        this.scanned = true;
+        this.invalidateTransformerIndex();
+    }
 
-                        byte[] data = IOUtils.readFully(in, -1, true);
+    public void inspectAllClasses(ForkJoinPool pool) {
+        for (URL jarUrl : this.jars) {
+            JarArchive archive = this.getArchive(jarUrl);
+            InspectTask task;
+            if (archive != null) {
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Inspecting " + jarUrl);
+                }
 
-                        String className = name.substring(0, name.length() - 6).replaceAll("/", ".");
+                // Entries are read by the tasks themselves
+                List<JarArchive.Entry> entries = new ArrayList<JarArchive.Entry>();
+                for (JarArchive.Entry entry : archive.getEntries()) {
+                    if (entry.getName().endsWith(".class")) {
+                        entries.add(entry);
+                    }
+                }
+                task = new InspectTask(archive, entries, null, null, 0, entries.size());
+            } else {
+                List<String> names = new ArrayList<String>();
+                List<byte[]> data = new ArrayList<byte[]>();
+                this.readAllClasses(jarUrl, names, data);
+                task = new InspectTask(null, null, names, data, 0, names.size());
+            }
 
-                        for (IClassInspector inspector : this.classInspectors) {
-                            if (CLASSLOADER_DEBUGGING) {
-                                System.out.println("Inspecting class file with " + inspector);
-                            }
-                            inspector.inspect(className, data);
-                        }
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        }
+        this.scanned = true;
+        this.invalidateTransformerIndex();
+    }
+
+    private static String toClassName(String entryName) {
+        return entryName.substring(0, entryName.length() - 6).replace('/', '.');
+    }
+
+    /**
+     * Reads every class file of the jar through its URL, inspecting it directly when no lists to collect into are
+     * given.
+     */
+    private void readAllClasses(URL jarUrl, List<String> names, List<byte[]> data) {
+        if (CLASSLOADER_DEBUGGING) {
+            System.out.println("Inspecting " + jarUrl);
+        }
+
+        JarInputStream in = null;
+
+        try {
+            in = new JarInputStream(jarUrl.openStream());
+
+            JarEntry entry = null;
+            while ((entry = in.getNextJarEntry()) != null) {
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    String className = toClassName(name);
+                    byte[] bytes = IOUtils.readFully(in, -1, true);
+                    this.metrics.bytesRead.add(bytes.length);
+                    if (names != null) {
+                        names.add(className);
+                        data.add(bytes);
+                    } else {
+                        this.inspect(className, bytes, false);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            Util.close(in);
+        }
+    }
+
+    private void inspect(String className, byte[] data, boolean parallel) {
+        if (CLASSLOADER_DEBUGGING) {
+            System.out.println("Inspecting class file " + className);
+        }
+
+        long start = System.nanoTime();
+        this.inspectClass(className, data, parallel);
+        this.record(BootProfile.INSPECT, start);
+    }
+
+    private void inspectClass(String className, byte[] data, boolean parallel) {
+        for (IClassInspector inspector : this.classInspectors) {
+            if (CLASSLOADER_DEBUGGING) {
+                System.out.println("Inspecting class file with " + inspector);
+            }
+            if (parallel && !(inspector instanceof IConcurrentInspector)) {
+                synchronized (inspector) {
+                    inspector.inspect(className, data);
+                }
+            } else {
+                inspector.inspect(className, data);
+            }
+        }
+
+        List<TransformerTargets> predicateTargets = null;
+        for (TransformerEntry entry : this.classTransformers) {
+            TransformerTargets targets = entry.getTargets();
+            if (targets != null && targets.getPredicate() != null) {
+                if (predicateTargets == null) {
+                    predicateTargets = new ArrayList<TransformerTargets>();
+                }
+                predicateTargets.add(targets);
+            }
+        }
+
+        if (!this.metadataInspectors.isEmpty() || predicateTargets != null) {
+            ClassMetadata metadata = ClassMetadataReader.read(data);
+            if (predicateTargets != null) {
+                for (TransformerTargets targets : predicateTargets) {
+                    if (targets.getPredicate().matches(metadata)) {
+                        targets.addClass(className);
+                    }
+                }
+            }
+
+            for (IClassMetadataInspector inspector : this.metadataInspectors) {
+                if (CLASSLOADER_DEBUGGING) {
+                    System.out.println("Inspecting class metadata with " + inspector);
+                }
+                if (parallel && !(inspector instanceof IConcurrentInspector)) {
+                    synchronized (inspector) {
+                        inspector.inspect(metadata);
                     }
+                } else {
+                    inspector.inspect(metadata);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                Util.close(in);
+            }
+
+            if (this.scanPipeline && metadata.isBytesRetained()) {
+                this.scannedBytes.put(className, data);
             }
         }
     }
@@ -238,7 +791,199 @@ public class BootClassLoader extends URLClassLoader {
             System.out.println("Defining custom class " + name);
         }
 
-        return this.defineClass(name, data, 0, data.length);
+        synchronized (this.getClassLoadingLock(name)) {
+            Class<?> result = this.defineClass(name, data, 0, data.length);
+            this.metrics.classesDefined.increment();
+            this.metrics.bytesDefined.add(data.length);
+            return result;
+        }
+    }
+
+    private static class TransformerEntry {
+
+        private final IClassTransformer bytes;
+        private final IClassNodeTransformer node;
+        private TimingHistogram timings;
+
+        private TransformerEntry(IClassTransformer bytes, IClassNodeTransformer node) {
+            this.bytes = bytes;
+            this.node = node;
+        }
+
+        private Object getTransformer() {
+            return this.bytes != null ? this.bytes : this.node;
+        }
+
+        private TransformerTargets getTargets() {
+            Object transformer = this.getTransformer();
+            return transformer instanceof ITargetedTransformer ? ((ITargetedTransformer) transformer).getTargets() : null;
+        }
+    }
+
+    /**
+     * Maps class names and packages to the positions of the transformers targeting them, so finding the transformers
+     * for a class takes a few hash lookups regardless of how many transformers there are.
+     */
+    private static class TransformerIndex {
+
+        private final List<TransformerEntry> entries;
+        private final int[] global;
+        private final Map<String, int[]> classes = new HashMap<String, int[]>();
+        private final Map<String, int[]> packages = new HashMap<String, int[]>();
+
+        private TransformerIndex(List<TransformerEntry> entries, boolean scanned) {
+            this.entries = entries;
+
+            List<Integer> global = new ArrayList<Integer>();
+            Map<String, List<Integer>> classes = new HashMap<String, List<Integer>>();
+            Map<String, List<Integer>> packages = new HashMap<String, List<Integer>>();
+            for (int i = 0; i < entries.size(); i++) {
+                TransformerTargets targets = entries.get(i).getTargets();
+                if (targets == null) {
+                    global.add(i);
+                    continue;
+                }
+                if (targets.getPredicate() != null && !scanned) {
+                    // Nothing was scanned to evaluate the predicate against
+                    global.add(i);
+                    continue;
+                }
+                for (String name : targets.getClasses()) {
+                    add(classes, name, i);
+                }
+                for (String name : targets.getPackages()) {
+                    add(packages, name, i);
+                }
+            }
+
+            this.global = toArray(global);
+            for (Map.Entry<String, List<Integer>> entry : classes.entrySet()) {
+                this.classes.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            for (Map.Entry<String, List<Integer>> entry : packages.entrySet()) {
+                this.packages.put(entry.getKey(), toArray(entry.getValue()));
+            }
+        }
+
+        private static void add(Map<String, List<Integer>> map, String key, int index) {
+            List<Integer> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                map.put(key, list);
+            }
+            list.add(index);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = list.get(i);
+            }
+            return result;
+        }
+
+        private List<TransformerEntry> lookup(String name) {
+            int[] exact = this.classes.get(name);
+            boolean[] selected = null;
+
+            if (!this.packages.isEmpty()) {
+                int end = name.lastIndexOf('.');
+                while (end > 0) {
+                    int[] matches = this.packages.get(name.substring(0, end));
+                    if (matches != null) {
+                        selected = select(selected, matches, this.entries.size());
+                    }
+                    end = name.lastIndexOf('.', end - 1);
+                }
+            }
+
+            if (selected == null) {
+                if (exact == null) {
+                    return this.resolve(this.global);
+                }
+                if (this.global.length == 0) {
+                    return this.resolve(exact);
+                }
+            }
+
+            // Several sources, merge them back into registration order
+            selected = select(selected, this.global, this.entries.size());
+            if (exact != null) {
+                selected = select(selected, exact, this.entries.size());
+            }
+            List<TransformerEntry> result = new ArrayList<TransformerEntry>();
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i]) {
+                    result.add(this.entries.get(i));
+                }
+            }
+            return result;
+        }
+
+        private static boolean[] select(boolean[] selected, int[] indices, int size) {
+            if (selected == null) {
+                selected = new boolean[size];
+            }
+            for (int index : indices) {
+                selected[index] = true;
+            }
+            return selected;
+        }
+
+        private List<TransformerEntry> resolve(int[] indices) {
+            if (indices.length == 0) {
+                return Collections.emptyList();
+            }
+            List<TransformerEntry> result = new ArrayList<TransformerEntry>(indices.length);
+            for (int index : indices) {
+                result.add(this.entries.get(index));
+            }
+            return result;
+        }
+    }
+
+    private class InspectTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final JarArchive archive;
+        private final List<JarArchive.Entry> entries;
+        private final List<String> names;
+        private final List<byte[]> data;
+        private final int start;
+        private final int end;
+
+        private InspectTask(JarArchive archive, List<JarArchive.Entry> entries, List<String> names, List<byte[]> data, int start, int end) {
+            this.archive = archive;
+            this.entries = entries;
+            this.names = names;
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= INSPECT_SPLIT_THRESHOLD) {
+                for (int i = this.start; i < this.end; i++) {
+                    if (this.archive != null) {
+                        JarArchive.Entry entry = this.entries.get(i);
+                        try {
+                            byte[] data = this.archive.read(entry);
+                            BootClassLoader.this.metrics.bytesRead.add(data.length);
+                            BootClassLoader.this.inspect(toClassName(entry.getName()), data, true);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    } else {
+                        BootClassLoader.this.inspect(this.names.get(i), this.data.get(i), true);
+                    }
+                }
+            } else {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new InspectTask(this.archive, this.entries, this.names, this.data, this.start, middle), new InspectTask(this.archive, this.entries, this.names, this.data, middle, this.end));
+            }
+        }
     }
 
 }
@@ -1,23 +1,41 @@
 package net.specialattack.loader;
 
+import net.specialattack.loader.cache.ClassBytesCache;
+import net.specialattack.loader.cache.ScanIndex;
 import net.specialattack.loader.config.Configuration;
+import net.specialattack.loader.config.ConfigurationException;
+import net.specialattack.loader.config.ConfigurationSnapshot;
+import net.specialattack.loader.config.IConfigurationListener;
+import net.specialattack.loader.config.ServiceConfiguration;
 import net.specialattack.loader.logging.*;
+import net.specialattack.loader.management.BootProfile;
+import net.specialattack.loader.management.ClassLoaderMetrics;
+import net.specialattack.loader.monitor.IMonitorCommands;
+import net.specialattack.loader.monitor.MonitorServer;
+import net.specialattack.loader.tracking.BatchingTracker;
 import net.specialattack.loader.tracking.TrackableClass;
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.AnnotationNode;
-import org.objectweb.asm.tree.ClassNode;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetAddress;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -28,11 +46,37 @@ public final class BootLoader {
     protected static final BootLoader INSTANCE = new BootLoader();
     private Set<BootClassLoader> loaders;
     private int connectionPort = -1;
+    private InetAddress connectionBindAddress;
     private String logFile;
-    private ServerSocket serverSocket;
-    private RunnableSocket runnableSocket;
-    private Thread threadSocket;
-    private List<ServiceData> services = new ArrayList<ServiceData>();
+    private File cacheFolder;
+    private boolean classCache;
+    private boolean parallelDiscovery;
+    private int discoveryThreads;
+    private boolean scanIndex;
+    private ClassBytesCache.Policy classBytesPolicy;
+    private int classBytesCacheSize;
+    private boolean scanPipeline;
+    private int startupThreads;
+    private volatile ServiceScheduler scheduler;
+    private String bootReport;
+    private volatile BootProfile profile;
+    private MonitorServer monitorServer;
+    private int trackingBufferSize;
+    private int trackingWindow;
+    private int trackingThreads;
+    private volatile BatchingTracker tracker;
+    private boolean logAsync;
+    private int logAsyncQueue;
+    private AsyncFileLogHandler.OverflowPolicy logAsyncOverflow;
+    private int logAsyncSampleRate;
+    private LogRotation logRotation;
+    private boolean rawLogBinary;
+    private Level logLevel;
+    private boolean configReload;
+    private Configuration config;
+    private ConsoleLogHandler stdoutHandler;
+    private ConsoleLogHandler stderrHandler;
+    private List<ServiceData> services = new CopyOnWriteArrayList<ServiceData>();
     private PrintStream stdOut;
     private PrintStream stdErr;
 
@@ -54,13 +98,107 @@ public final class BootLoader {
     private void loadConfig() {
         Configuration config = new Configuration(new File("loader.cfg"));
         config.setDefault("connectionPort", -1);
+        // Empty for the loopback interface only, the monitor protocol has no authentication
+        config.setDefault("connection-bind-address", "");
         config.setDefault("log-file", "./console.log");
+        config.setDefault("cache-folder", "./cache");
+        config.setDefault("class-cache", false);
+        config.setDefault("parallel-discovery", false);
+        config.setDefault("discovery-threads", 0);
+        config.setDefault("scan-index", false);
+        config.setDefault("class-bytes-cache", "discard");
+        config.setDefault("class-bytes-cache-size", 4 * 1024 * 1024);
+        config.setDefault("scan-pipeline", true);
+        config.setDefault("startup-threads", 0);
+        config.setDefault("boot-report", "./boot-report.json");
+        config.setDefault("tracking-buffer-size", 65536);
+        config.setDefault("tracking-window", 100);
+        config.setDefault("tracking-threads", 1);
+        config.setDefault("log-async", false);
+        config.setDefault("log-async-queue", 8192);
+        config.setDefault("log-async-overflow", "block");
+        config.setDefault("log-async-sample-rate", 10);
+        config.setDefault("log-rotate-size", 0);
+        config.setDefault("log-rotate-daily", false);
+        config.setDefault("log-rotate-max-files", 10);
+        config.setDefault("log-rotate-compress", true);
+        config.setDefault("raw-log-format", "text");
+        config.setDefault("log-level", "INFO");
+        config.setDefault("config-reload", false);
         config.load();
         this.connectionPort = config.getInt("connectionPort");
+        this.connectionBindAddress = parseBindAddress(config.getString("connection-bind-address"));
         this.logFile = config.getString("log-file");
+        this.cacheFolder = new File(config.getString("cache-folder"));
+        this.classCache = config.getBoolean("class-cache");
+        this.parallelDiscovery = config.getBoolean("parallel-discovery");
+        this.discoveryThreads = config.getInt("discovery-threads");
+        this.scanIndex = config.getBoolean("scan-index");
+        try {
+            this.classBytesPolicy = ClassBytesCache.parsePolicy(config.getString("class-bytes-cache"));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(e.getMessage());
+        }
+        this.classBytesCacheSize = config.getInt("class-bytes-cache-size");
+        this.scanPipeline = config.getBoolean("scan-pipeline");
+        this.startupThreads = config.getInt("startup-threads");
+        this.bootReport = config.getString("boot-report");
+        this.trackingBufferSize = config.getInt("tracking-buffer-size");
+        this.trackingWindow = config.getInt("tracking-window");
+        this.trackingThreads = config.getInt("tracking-threads");
+        this.logAsync = config.getBoolean("log-async");
+        this.logAsyncQueue = config.getInt("log-async-queue");
+        try {
+            this.logAsyncOverflow = AsyncFileLogHandler.parsePolicy(config.getString("log-async-overflow"));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(e.getMessage());
+        }
+        this.logAsyncSampleRate = config.getInt("log-async-sample-rate");
+        this.logRotation = new LogRotation(config.getInt("log-rotate-size"), config.getBoolean("log-rotate-daily"), config.getInt("log-rotate-max-files"), config.getBoolean("log-rotate-compress"));
+        String rawLogFormat = config.getString("raw-log-format").trim();
+        if (!rawLogFormat.equalsIgnoreCase("text") && !rawLogFormat.equalsIgnoreCase("binary")) {
+            throw new ConfigurationException("Unknown raw log format '" + rawLogFormat + "', expected text or binary");
+        }
+        this.rawLogBinary = rawLogFormat.equalsIgnoreCase("binary");
+        this.logLevel = parseLevel(config.getString("log-level"));
+        this.configReload = config.getBoolean("config-reload");
+        ServiceConfiguration.setWatch(this.configReload);
+        this.config = config;
+    }
+
+    private static InetAddress parseBindAddress(String address) {
+        if (address.trim().isEmpty()) {
+            return InetAddress.getLoopbackAddress();
+        }
+        try {
+            return InetAddress.getByName(address.trim());
+        } catch (UnknownHostException e) {
+            throw new ConfigurationException("Unknown connection bind address '" + address + "'");
+        }
+    }
+
+    private static Level parseLevel(String level) {
+        try {
+            return Level.parse(level.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("Unknown log level '" + level + "'");
+        }
+    }
+
+    /**
+     * Returns the tracker trackable services send their updates to, or null if no trackable classes were found. The
+     * loader never creates trackable objects itself, services pass this tracker to
+     * {@link net.specialattack.loader.tracking.ITrackable#sendInitalizingData} of the objects they create and
+     * subscribe to it for updates.
+     */
+    public static BatchingTracker getTracker() {
+        return INSTANCE.tracker;
     }
 
     private void setup() throws IOException {
+        this.profile = new BootProfile();
+        long phaseStart = System.nanoTime();
+
         final Thread.UncaughtExceptionHandler oldHandler = Thread.getDefaultUncaughtExceptionHandler();
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
 
@@ -79,10 +217,18 @@ public final class BootLoader {
 
         // setup remote connection
         if (this.connectionPort > 0) {
-            this.serverSocket = new ServerSocket(this.connectionPort);
-            this.runnableSocket = new RunnableSocket();
-            this.threadSocket = new Thread(this.runnableSocket, "Monitor connection thread");
-            this.threadSocket.start();
+            this.monitorServer = new MonitorServer(this.connectionBindAddress, this.connectionPort, new MonitorCommands());
+            this.monitorServer.start();
+        }
+
+        if (this.configReload) {
+            this.config.addListener(new ConfigurationListener());
+            try {
+                this.config.watch();
+            } catch (IOException e) {
+                System.err.println("Failed watching configuration, changes need a restart");
+                e.printStackTrace();
+            }
         }
 
         // Detect services
@@ -96,6 +242,7 @@ public final class BootLoader {
         List<File> filesList = new ArrayList<File>();
         File[] files = servicesFolder.listFiles();
         if (files != null) {
+            Arrays.sort(files);
             for (File file : files) {
                 if (file.isFile() && file.getName().endsWith(".jar")) {
                     filesList.add(file);
@@ -103,19 +250,106 @@ public final class BootLoader {
             }
         }
 
+        phaseStart = this.recordPhase("setup", phaseStart);
+
         if (filesList.size() > 0) {
+            ScanIndex index = null;
+            if (this.scanIndex) {
+                index = new ScanIndex(new File(this.cacheFolder, "scan.idx"));
+                index.load();
+                index.retain(filesList);
+            }
+
+            List<ServicesInspector> inspectors = new ArrayList<ServicesInspector>();
+            List<File> scanFiles = new ArrayList<File>();
+            List<BootClassLoader> scanLoaders = new ArrayList<BootClassLoader>();
             for (File file : filesList) {
-                System.out.println("Inspecting file " + file);
                 BootClassLoader loader = new BootClassLoader(new URL[] { file.toURI().toURL() });
+                loader.setBootProfile(this.profile);
+                loader.setClassBytesCache(new ClassBytesCache(this.classBytesPolicy, this.classBytesCacheSize));
+                loader.setScanPipeline(this.scanPipeline);
+                if (this.classCache) {
+                    loader.setClassCacheFolder(new File(this.cacheFolder, "classes"));
+                }
                 ServiceData service = new ServiceData(loader);
-                loader.addClassInspector(new ServicesInspector(service));
-                loader.inspectAllClasses();
+                ServicesInspector inspector = new ServicesInspector();
                 this.services.add(service);
+                inspectors.add(inspector);
+
+                ScanIndex.Entry entry = index != null ? index.lookup(file) : null;
+                if (entry != null) {
+                    System.out.println("Using indexed scan results for " + file);
+                    inspector.services.addAll(entry.services);
+                    inspector.dependencies.putAll(entry.dependencies);
+                    inspector.lazyServices.addAll(entry.lazyServices);
+                    inspector.trackableClasses.addAll(entry.trackableClasses);
+                } else {
+                    loader.addClassInspector(inspector);
+                    scanFiles.add(file);
+                    scanLoaders.add(loader);
+                }
+            }
+
+            phaseStart = this.recordPhase("index", phaseStart);
+
+            if (this.parallelDiscovery) {
+                this.inspectParallel(scanFiles, scanLoaders);
+            } else {
+                for (int i = 0; i < scanFiles.size(); i++) {
+                    System.out.println("Inspecting file " + scanFiles.get(i));
+                    long start = System.nanoTime();
+                    scanLoaders.get(i).inspectAllClasses();
+                    this.profile.recordJarScan(scanFiles.get(i).getPath(), System.nanoTime() - start);
+                }
+            }
+            phaseStart = this.recordPhase("scan", phaseStart);
+
+            // Merge in jar order, names sorted, so the outcome does not depend on scheduling
+            for (int i = 0; i < filesList.size(); i++) {
+                ServiceData service = this.services.get(i);
+                ServicesInspector inspector = inspectors.get(i);
+                for (String name : inspector.services) {
+                    service.addService(name, inspector.dependencies.get(name), inspector.lazyServices.contains(name));
+                }
+                service.trackableClasses.addAll(inspector.trackableClasses);
+                for (String name : inspector.services) {
+                    if (inspector.lazyServices.contains(name)) {
+                        System.out.println("Detected lazy service class " + name);
+                    } else {
+                        System.out.println("Detected service class " + name);
+                    }
+                }
+                for (String name : inspector.trackableClasses) {
+                    System.out.println("Detected trackable class " + name);
+                }
+                if (index != null && scanFiles.contains(filesList.get(i))) {
+                    try {
+                        index.update(filesList.get(i), inspector.services, inspector.dependencies, inspector.lazyServices, inspector.trackableClasses);
+                    } catch (IOException e) {
+                        System.err.println("Failed indexing " + filesList.get(i));
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            if (index != null) {
+                index.save();
+            }
+            phaseStart = this.recordPhase("merge", phaseStart);
+        }
+
+        for (ServiceData service : this.services) {
+            if (!service.trackableClasses.isEmpty()) {
+                this.tracker = new BatchingTracker(this.trackingBufferSize, this.trackingWindow, Math.max(1, this.trackingThreads));
+                break;
             }
         }
 
         for (ServiceData service : this.services) {
             for (String className : service.services) {
+                if (service.lazyServices.contains(className)) {
+                    continue;
+                }
                 try {
                     Class<?> clazz = service.loader.findClass(className);
                 } catch (ClassNotFoundException e) {
@@ -123,14 +357,85 @@ public final class BootLoader {
                 }
             }
         }
+        this.recordPhase("load", phaseStart);
+    }
+
+    /**
+     * Records the time since the start of a phase, returning the start of the next one.
+     */
+    private long recordPhase(String phase, long start) {
+        long now = System.nanoTime();
+        this.profile.recordPhase(phase, now - start);
+        return now;
+    }
+
+    private void inspectParallel(List<File> filesList, List<BootClassLoader> loaders) {
+        int threads = this.discoveryThreads > 0 ? this.discoveryThreads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (int i = 0; i < filesList.size(); i++) {
+                System.out.println("Inspecting file " + filesList.get(i));
+                final BootClassLoader loader = loaders.get(i);
+                final ForkJoinPool taskPool = pool;
+                final String path = filesList.get(i).getPath();
+                tasks.add(pool.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        loader.inspectAllClasses(taskPool);
+                        BootLoader.this.profile.recordJarScan(path, System.nanoTime() - start);
+                    }
+                }));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    tasks.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while inspecting " + filesList.get(i), e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Failed inspecting " + filesList.get(i), e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
     }
 
     private void startServices() {
+        long start = System.nanoTime();
+        ServiceScheduler scheduler = new ServiceScheduler();
+        scheduler.setBootProfile(this.profile);
         for (ServiceData service : this.services) {
-            for (IServiceWrapper wrapper : service.serviceWrappers) {
-                wrapper.start();
+            for (Map.Entry<String, IServiceWrapper> entry : service.serviceWrappers.entrySet()) {
+                String name = entry.getKey();
+                scheduler.addService(name, entry.getValue(), service.dependencies.get(name), service.lazyServices.contains(name));
             }
         }
+        this.scheduler = scheduler;
+
+        int threads = this.startupThreads > 0 ? this.startupThreads : Runtime.getRuntime().availableProcessors();
+        this.scheduler.startAll(threads);
+        this.recordPhase("start", start);
+
+        this.profile.finish();
+        // The profile only covers the boot, classes loaded and services activated later are not counted against it
+        this.scheduler.setBootProfile(null);
+        for (ServiceData service : this.services) {
+            service.loader.setBootProfile(null);
+        }
+        // Registered afterwards, starting the platform MBean server takes a noticeable part of the boot
+        this.profile.register();
+        for (ServiceData service : this.services) {
+            URL[] urls = service.loader.getURLs();
+            service.loader.getMetrics().register(urls.length > 0 ? new File(urls[0].getPath()).getName() : service.loader.toString());
+        }
+        System.out.println(String.format("Boot completed in %.1f ms", this.profile.getBootTime() / 1000000.0D));
+        if (this.bootReport != null && !this.bootReport.isEmpty()) {
+            this.profile.writeReport(new File(this.bootReport));
+        }
     }
 
     private void setupLoggers() {
@@ -157,9 +462,11 @@ public final class BootLoader {
         ConsoleLogHandler stderrHandler = new ConsoleLogHandler(System.err);
         ConsoleLogFormatter formatter = new ConsoleLogFormatter();
         stdoutHandler.setFormatter(formatter);
-        stdoutHandler.setLevel(Level.INFO);
+        stdoutHandler.setLevel(this.logLevel);
         stderrHandler.setFormatter(formatter);
-        stderrHandler.setLevel(Level.INFO);
+        stderrHandler.setLevel(this.logLevel);
+        this.stdoutHandler = stdoutHandler;
+        this.stderrHandler = stderrHandler;
 
         stdout.addHandler(stdoutHandler);
         stdout.setLevel(Level.ALL);
@@ -172,14 +479,19 @@ public final class BootLoader {
         global.addHandler(stdoutHandler);
         global.setLevel(Level.ALL);
 
-        FileLogHandler fileHandler = null;
+        Handler fileHandler = null;
         try {
-            fileHandler = new FileLogHandler("./raw.log", true);
-            fileHandler.setFormatter(new FileLogFormatter());
+            if (this.rawLogBinary) {
+                // Read it with BinaryLogDecoder
+                fileHandler = new BinaryLogHandler("./raw.bin", true, this.logRotation);
+            } else {
+                fileHandler = this.createFileHandler("./raw.log");
+                fileHandler.setFormatter(new FileLogFormatter());
+            }
             fileHandler.setLevel(Level.ALL);
             rawIRC.addHandler(fileHandler);
 
-            fileHandler = new FileLogHandler(logFile, true);
+            fileHandler = this.createFileHandler(logFile);
             fileHandler.setFormatter(new FileLogFormatter());
             fileHandler.setLevel(Level.ALL);
             stdout.addHandler(fileHandler);
@@ -189,8 +501,15 @@ public final class BootLoader {
             e.printStackTrace();
         }
 
-        System.setOut(new PrintStream(new LoggerOutputStream(stdout, Level.INFO), true));
-        System.setErr(new PrintStream(new LoggerOutputStream(stderr, Level.WARNING), true));
+        System.setOut(new LoggerPrintStream(stdout, Level.INFO));
+        System.setErr(new LoggerPrintStream(stderr, Level.WARNING));
+    }
+
+    private Handler createFileHandler(String filename) throws IOException {
+        if (this.logAsync) {
+            return new AsyncFileLogHandler(filename, true, this.logRotation, this.logAsyncQueue, this.logAsyncOverflow, this.logAsyncSampleRate);
+        }
+        return new FileLogHandler(filename, true, this.logRotation);
     }
 
     private void resetLoggers() {
@@ -200,57 +519,176 @@ public final class BootLoader {
     }
 
     private void stopServices() {
-        for (ServiceData service : this.services) {
-            for (IServiceWrapper wrapper : service.serviceWrappers) {
-                wrapper.stop();
-            }
+        if (this.scheduler != null) {
+            this.scheduler.stopAll();
+        }
+        if (this.tracker != null) {
+            this.tracker.close();
+            this.tracker = null;
         }
     }
 
-    private static class ServicesInspector implements IClassInspector {
+    private static class ServicesInspector implements IClassMetadataInspector, IConcurrentInspector {
 
-        private final ServiceData service;
+        private static final String SERVICE = Type.getDescriptor(Service.class);
+        private static final String TRACKABLE_CLASS = Type.getDescriptor(TrackableClass.class);
 
-        protected ServicesInspector(ServiceData service) {
-            this.service = service;
-        }
+        private final Set<String> services = new ConcurrentSkipListSet<String>();
+        private final Set<String> trackableClasses = new ConcurrentSkipListSet<String>();
+        private final Map<String, List<String>> dependencies = new ConcurrentHashMap<String, List<String>>();
+        private final Set<String> lazyServices = new ConcurrentSkipListSet<String>();
 
         @Override
-        @SuppressWarnings("unchecked")
-        public void inspect(String name, byte[] data) {
-            ClassReader reader = new ClassReader(data);
-            ClassNode node = new ClassNode();
-            reader.accept(node, 0);
-
-            List<AnnotationNode> annotations = (List<AnnotationNode>) node.invisibleAnnotations;
-            if (annotations != null) {
-                for (AnnotationNode annotation : annotations) {
-                    if (annotation.desc.equals(Type.getDescriptor(Service.class))) {
-                        System.out.println("Detected service class " + name);
-                        this.service.services.add(name);
-                    } else if (annotation.desc.equals(Type.getDescriptor(TrackableClass.class))) {
-                        System.out.println("Detected trackable class " + name);
-                        this.service.trackableClasses.add(name);
+        public void inspect(ClassMetadata metadata) {
+            Map<String, Object> service = metadata.getAnnotation(SERVICE);
+            if (service != null) {
+                List<String> dependencies = new ArrayList<String>();
+                List<?> types = (List<?>) service.get("dependencies");
+                if (types != null) {
+                    for (Object type : types) {
+                        dependencies.add(((Type) type).getClassName());
                     }
                 }
+                this.dependencies.put(metadata.getName(), dependencies);
+                this.services.add(metadata.getName());
+                if (Boolean.TRUE.equals(service.get("lazy"))) {
+                    // Lazy services are read again when they are activated
+                    this.lazyServices.add(metadata.getName());
+                } else {
+                    metadata.retainBytes();
+                }
+            }
+            if (metadata.hasAnnotation(TRACKABLE_CLASS)) {
+                this.trackableClasses.add(metadata.getName());
             }
         }
     }
 
-    private class RunnableSocket implements Runnable {
-
-        @Override
-        public void run() {
+    /**
+     * Moves the monitor to another port, or stops it for a port of 0 or less.
+     */
+    private synchronized void setConnectionPort(int port) {
+        if (port == this.connectionPort) {
+            return;
+        }
+        this.connectionPort = port;
+        if (this.monitorServer != null) {
+            this.monitorServer.close();
+            this.monitorServer = null;
+        }
+        if (port > 0) {
             try {
-                Socket socket = BootLoader.this.serverSocket.accept();
-                System.out.println("=== Got connection!");
-                //LocalServer connection = new LocalServer(this.connectionsList, socket);
-                //this.connectionsList.addConnection(connection);
-            } catch (SocketException e) {
+                MonitorServer monitorServer = new MonitorServer(this.connectionBindAddress, port, new MonitorCommands());
+                monitorServer.start();
+                this.monitorServer = monitorServer;
             } catch (IOException e) {
+                System.err.println("Failed starting connection monitor on port " + port);
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Applies changes to loader.cfg that can take effect without a restart.
+     */
+    private class ConfigurationListener implements IConfigurationListener {
+
+        @Override
+        public void configurationChanged(ConfigurationSnapshot previous, ConfigurationSnapshot current) {
+            for (String key : previous.getChanged(current)) {
+                if (key.equals("log-level")) {
+                    Level level = parseLevel(current.getString(key));
+                    System.out.println("Console log level changed to " + level);
+                    BootLoader.this.logLevel = level;
+                    BootLoader.this.stdoutHandler.setLevel(level);
+                    BootLoader.this.stderrHandler.setLevel(level);
+                } else if (key.equals("connectionPort")) {
+                    BootLoader.this.setConnectionPort(current.getInt(key));
+                    System.out.println("Connection monitor port changed to " + current.getInt(key));
+                } else {
+                    System.out.println("Configuration value " + key + " changed, it takes effect after a restart");
+                }
+            }
+        }
+    }
+
+    private class MonitorCommands implements IMonitorCommands {
+
+        private final long started = System.currentTimeMillis();
+
+        private ServiceScheduler getScheduler() {
+            ServiceScheduler scheduler = BootLoader.this.scheduler;
+            if (scheduler == null) {
+                throw new RuntimeException("Services are not started yet");
+            }
+            return scheduler;
+        }
+
+        @Override
+        public Map<String, Long> getStatus() {
+            Map<String, Long> status = new LinkedHashMap<String, Long>();
+            status.put("uptime", System.currentTimeMillis() - this.started);
+            BootProfile profile = BootLoader.this.profile;
+            status.put("bootTime", profile != null ? profile.getBootTime() : 0L);
+            ServiceScheduler scheduler = BootLoader.this.scheduler;
+            long services = 0L;
+            long startedServices = 0L;
+            if (scheduler != null) {
+                for (String name : scheduler.getServices()) {
+                    services++;
+                    if (scheduler.isStarted(name)) {
+                        startedServices++;
+                    }
+                }
+            }
+            status.put("services", services);
+            status.put("startedServices", startedServices);
+            Runtime runtime = Runtime.getRuntime();
+            status.put("usedMemory", runtime.totalMemory() - runtime.freeMemory());
+            status.put("maxMemory", runtime.maxMemory());
+            status.put("threads", (long) Thread.activeCount());
+            return status;
+        }
+
+        @Override
+        public Map<String, Long> getMetrics() {
+            Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+            for (ServiceData service : BootLoader.this.services) {
+                URL[] urls = service.loader.getURLs();
+                String prefix = (urls.length > 0 ? new File(urls[0].getPath()).getName() : service.loader.toString()) + ".";
+                ClassLoaderMetrics loader = service.loader.getMetrics();
+                metrics.put(prefix + "findClassCalls", loader.getFindClassCalls());
+                metrics.put(prefix + "classCacheHits", loader.getClassCacheHits());
+                metrics.put(prefix + "classBytesCacheHits", loader.getClassBytesCacheHits());
+                metrics.put(prefix + "classBytesCacheMisses", loader.getClassBytesCacheMisses());
+                metrics.put(prefix + "negativeHits", loader.getNegativeHits());
+                metrics.put(prefix + "parentDelegations", loader.getParentDelegations());
+                metrics.put(prefix + "bytesRead", loader.getBytesRead());
+                metrics.put(prefix + "bytesDefined", loader.getBytesDefined());
+                metrics.put(prefix + "classesDefined", loader.getClassesDefined());
+            }
+            return metrics;
+        }
+
+        @Override
+        public Map<String, Boolean> getServices() {
+            ServiceScheduler scheduler = this.getScheduler();
+            Map<String, Boolean> services = new TreeMap<String, Boolean>();
+            for (String name : scheduler.getServices()) {
+                services.put(name, scheduler.isStarted(name));
+            }
+            return services;
+        }
+
+        @Override
+        public void startService(String name) {
+            this.getScheduler().start(name);
+        }
+
+        @Override
+        public void stopService(String name) {
+            this.getScheduler().stop(name);
+        }
+    }
+
 }
@@ -0,0 +1,75 @@
+package net.specialattack.loader;
+
+import org.objectweb.asm.Type;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class level information of a class file, read once during discovery and shared by all metadata inspectors.
+ * Annotation values use the ASM representation: {@link Type} for classes, {@code String[] {desc, value}} for enum
+ * constants, {@link List} for arrays and {@link Map} for nested annotations.
+ */
+public final class ClassMetadata {
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final int access;
+    private final Map<String, Map<String, Object>> annotations;
+    private volatile boolean retainBytes;
+
+    public ClassMetadata(String name, String superName, List<String> interfaces, int access, Map<String, Map<String, Object>> annotations) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList(interfaces);
+        this.access = access;
+        this.annotations = Collections.unmodifiableMap(annotations);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getSuperName() {
+        return this.superName;
+    }
+
+    public List<String> getInterfaces() {
+        return this.interfaces;
+    }
+
+    public int getAccess() {
+        return this.access;
+    }
+
+    public Map<String, Map<String, Object>> getAnnotations() {
+        return this.annotations;
+    }
+
+    public boolean hasAnnotation(String desc) {
+        return this.annotations.containsKey(desc);
+    }
+
+    public Map<String, Object> getAnnotation(String desc) {
+        return this.annotations.get(desc);
+    }
+
+    public Map<String, Object> getAnnotation(Class<?> annotation) {
+        return this.annotations.get(Type.getDescriptor(annotation));
+    }
+
+    /**
+     * Asks the loader to keep the bytes read during discovery, because the class is going to be loaded. When the
+     * loader runs with its scan pipeline enabled, loading the class then skips reading it again.
+     */
+    public void retainBytes() {
+        this.retainBytes = true;
+    }
+
+    public boolean isBytesRetained() {
+        return this.retainBytes;
+    }
+
+}
@@ -0,0 +1,19 @@
+package net.specialattack.loader;
+
+/**
+ * Implemented by class transformers whose output may be stored in the persistent class cache.
+ * A loader only uses the cache when every registered transformer implements this interface.
+ */
+public interface ICacheableTransformer {
+
+    /**
+     * Identifies the transformation logic; change it whenever the transformer output changes.
+     */
+    String getFingerprint();
+
+    /**
+     * Called instead of transforming when the transformed bytes are taken from the cache.
+     */
+    void restore(String name, byte[] transformed);
+
+}
@@ -0,0 +1,7 @@
+package net.specialattack.loader;
+
+public interface IClassMetadataInspector {
+
+    void inspect(ClassMetadata metadata);
+
+}
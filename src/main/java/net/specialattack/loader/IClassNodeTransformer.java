@@ -0,0 +1,21 @@
+package net.specialattack.loader;
+
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Transforms classes as a tree. Consecutive node transformers share one parsed {@link ClassNode}, which is only
+ * written back to bytes once after the last of them.
+ */
+public interface IClassNodeTransformer {
+
+    /**
+     * Called before the class is parsed, classes that no node transformer wants are not parsed at all.
+     */
+    boolean wantsClass(String name);
+
+    /**
+     * Returns whether the node was changed.
+     */
+    boolean transform(String name, ClassNode node);
+
+}
@@ -0,0 +1,9 @@
+package net.specialattack.loader;
+
+/**
+ * Marks a class inspector as safe to be called from several threads at once during parallel discovery.
+ * Inspectors without this marker are still called in parallel mode, but never concurrently with themselves.
+ */
+public interface IConcurrentInspector {
+
+}
@@ -0,0 +1,7 @@
+package net.specialattack.loader;
+
+public interface ITargetPredicate {
+
+    boolean matches(ClassMetadata metadata);
+
+}
@@ -0,0 +1,11 @@
+package net.specialattack.loader;
+
+/**
+ * Implemented by class or class node transformers that only apply to some classes. The loader only passes the
+ * classes matched by the targets to such a transformer, classes matched by no transformer are not transformed at all.
+ */
+public interface ITargetedTransformer {
+
+    TransformerTargets getTargets();
+
+}
@@ -0,0 +1,81 @@
+package net.specialattack.loader;
+
+import net.specialattack.loader.management.BootProfile;
+
+/**
+ * Stands in for the wrapper of a lazy service. The service class is only loaded, transformed and wrapped when the
+ * service is started for the first time.
+ */
+public class LazyServiceWrapper implements IServiceWrapper {
+
+    private final ServiceData service;
+    private final String name;
+    // Read without the lock, so status requests don't wait for a service that is starting
+    private volatile IServiceWrapper wrapper;
+    private volatile boolean started;
+
+    public LazyServiceWrapper(ServiceData service, String name) {
+        this.service = service;
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isActivated() {
+        return this.wrapper != null;
+    }
+
+    public boolean isStarted() {
+        return this.started;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (this.started) {
+            return;
+        }
+        IServiceWrapper wrapper = this.activate();
+        if (wrapper != null) {
+            wrapper.start();
+        }
+        this.started = true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!this.started) {
+            return;
+        }
+        this.started = false;
+        if (this.wrapper != null) {
+            this.wrapper.stop();
+        }
+    }
+
+    @Override
+    public synchronized Class<?> getBaseClass() {
+        this.activate();
+        try {
+            return this.service.loader.findClass(this.name);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Failed loading class '" + this.name + "', but the class should exist!", e);
+        }
+    }
+
+    private IServiceWrapper activate() {
+        if (this.wrapper == null) {
+            long start = System.nanoTime();
+            this.wrapper = this.service.activate(this.name);
+            long time = System.nanoTime() - start;
+            BootProfile profile = this.service.loader.getBootProfile();
+            if (profile != null) {
+                profile.recordActivity(BootProfile.LAZY_ACTIVATION, time);
+            }
+            System.out.println(String.format("Activated lazy service %s in %.1f ms", this.name, time / 1000000.0D));
+        }
+        return this.wrapper;
+    }
+
+}
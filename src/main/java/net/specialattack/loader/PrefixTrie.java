@@ -0,0 +1,131 @@
+package net.specialattack.loader;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable character trie over string prefixes, each carrying a set of flag bits. A lookup walks the name once and
+ * returns the combined flags of every prefix of it, so its cost depends on the length of the name and not on the
+ * number of prefixes.
+ */
+public final class PrefixTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Map<String, Integer> prefixes;
+    private final Node root;
+
+    public PrefixTrie() {
+        this(new TreeMap<String, Integer>());
+    }
+
+    public PrefixTrie(Map<String, Integer> prefixes) {
+        this(new TreeMap<String, Integer>(prefixes));
+    }
+
+    private PrefixTrie(TreeMap<String, Integer> prefixes) {
+        this.prefixes = Collections.unmodifiableMap(prefixes);
+        Builder root = new Builder();
+        for (Map.Entry<String, Integer> entry : prefixes.entrySet()) {
+            Builder node = root;
+            String prefix = entry.getKey();
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            node.flags |= entry.getValue();
+        }
+        this.root = root.build();
+    }
+
+    /**
+     * Returns a trie that also holds the given prefix, adding to the flags it already had.
+     */
+    public PrefixTrie with(String prefix, int flags) {
+        TreeMap<String, Integer> prefixes = new TreeMap<String, Integer>(this.prefixes);
+        Integer previous = prefixes.get(prefix);
+        prefixes.put(prefix, previous == null ? flags : previous | flags);
+        return new PrefixTrie(prefixes);
+    }
+
+    public int match(String name) {
+        Node node = this.root;
+        int result = node.flags;
+        int length = name.length();
+        for (int i = 0; i < length; i++) {
+            node = node.child(name.charAt(i));
+            if (node == null) {
+                break;
+            }
+            result |= node.flags;
+        }
+        return result;
+    }
+
+    public Map<String, Integer> getPrefixes() {
+        return this.prefixes;
+    }
+
+    private static final class Node {
+
+        private final char[] keys;
+        private final Node[] children;
+        private final int flags;
+
+        private Node(char[] keys, Node[] children, int flags) {
+            this.keys = keys;
+            this.children = children;
+            this.flags = flags;
+        }
+
+        private Node child(char key) {
+            char[] keys = this.keys;
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char value = keys[middle];
+                if (value < key) {
+                    low = middle + 1;
+                } else if (value > key) {
+                    high = middle - 1;
+                } else {
+                    return this.children[middle];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Builder {
+
+        private final TreeMap<Character, Builder> children = new TreeMap<Character, Builder>();
+        private int flags;
+
+        private Builder child(char key) {
+            Builder child = this.children.get(key);
+            if (child == null) {
+                child = new Builder();
+                this.children.put(key, child);
+            }
+            return child;
+        }
+
+        private Node build() {
+            if (this.children.isEmpty()) {
+                return new Node(NO_KEYS, NO_CHILDREN, this.flags);
+            }
+            char[] keys = new char[this.children.size()];
+            Node[] nodes = new Node[keys.length];
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry : this.children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build();
+                i++;
+            }
+            return new Node(keys, nodes, this.flags);
+        }
+    }
+
+}
@@ -9,4 +9,14 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 public @interface Service {
 
+    /**
+     * Services that have to be started before this one.
+     */
+    Class<?>[] dependencies() default {};
+
+    /**
+     * Lazy services are only loaded and started when they are first needed.
+     */
+    boolean lazy() default false;
+
 }
@@ -1,44 +1,140 @@
 package net.specialattack.loader;
 
 import net.specialattack.loader.asm.ServiceWrapperGenerator;
+import net.specialattack.loader.management.BootProfile;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ServiceData {
 
     public final BootClassLoader loader;
     public final Set<String> services;
     public final Set<String> trackableClasses;
-    public final Set<IServiceWrapper> serviceWrappers;
+    public final Set<String> lazyServices;
+    public final Map<String, IServiceWrapper> serviceWrappers;
+    public final Map<String, List<String>> dependencies;
+    private final Map<String, IServiceWrapper> createdWrappers = new ConcurrentHashMap<String, IServiceWrapper>();
+    private final TransformerTargets transformerTargets = new TransformerTargets();
 
     public ServiceData(BootClassLoader loader) {
         this.loader = loader;
-        this.services = new HashSet<String>();
-        this.trackableClasses = new HashSet<String>();
+        this.services = new LinkedHashSet<String>();
+        this.trackableClasses = new LinkedHashSet<String>();
+        this.lazyServices = new LinkedHashSet<String>();
         this.loader.addClassTransformer(new ClassTransformer());
-        this.serviceWrappers = new HashSet<IServiceWrapper>();
+        this.serviceWrappers = new ConcurrentHashMap<String, IServiceWrapper>();
+        this.dependencies = new HashMap<String, List<String>>();
     }
 
-    private class ClassTransformer implements IClassTransformer {
+    public void addService(String name, List<String> dependencies, boolean lazy) {
+        this.services.add(name);
+        this.dependencies.put(name, dependencies == null ? Collections.<String>emptyList() : dependencies);
+        this.transformerTargets.addClass(name);
+        if (lazy) {
+            this.lazyServices.add(name);
+            this.serviceWrappers.put(name, new LazyServiceWrapper(this, name));
+        }
+    }
+
+    /**
+     * Loads a lazy service class, which creates its wrapper. Returns null if the service has no start and stop
+     * methods.
+     */
+    IServiceWrapper activate(String name) {
+        try {
+            this.loader.findClass(name);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Failed loading class '" + name + "', but the class should exist!", e);
+        }
+        return this.createdWrappers.get(name);
+    }
+
+    private void createWrapper(String name, boolean hasStart, boolean hasStop) {
+        if (hasStart && hasStop) {
+            long start = System.nanoTime();
+            Type type = Type.getObjectType(name.replace('.', '/'));
+            Class<? extends IServiceWrapper> clazz = ServiceWrapperGenerator.generateClass(type, this.loader);
+            IServiceWrapper wrapper;
+            try {
+                wrapper = clazz.newInstance();
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed creating service wrapper class " + clazz.getName(), e);
+            }
+            BootProfile profile = this.loader.getBootProfile();
+            if (profile != null) {
+                profile.recordActivity(BootProfile.WRAPPER_GENERATION, System.nanoTime() - start);
+            }
+            this.createdWrappers.put(name, wrapper);
+            if (!this.lazyServices.contains(name)) {
+                this.serviceWrappers.put(name, wrapper);
+            }
+        } else if (!hasStart && hasStop) {
+            throw new RuntimeException("Service class has a 'stopService' method, but not a 'startService' method");
+        } else if (hasStart && !hasStop) {
+            throw new RuntimeException("Service class has a 'startService' method, but not a 'stopService' method");
+        }
+    }
+
+    private class ClassTransformer implements IClassNodeTransformer, ITargetedTransformer, ICacheableTransformer {
 
         @Override
-        @SuppressWarnings("unchecked")
-        public byte[] transform(String name, byte[] original) {
+        public TransformerTargets getTargets() {
+            return ServiceData.this.transformerTargets;
+        }
+
+        @Override
+        public String getFingerprint() {
+            return "1";
+        }
+
+        @Override
+        public boolean wantsClass(String name) {
+            return ServiceData.this.services.contains(name);
+        }
+
+        @Override
+        public void restore(String name, byte[] transformed) {
             if (!ServiceData.this.services.contains(name)) {
-                return original;
+                return;
             }
-            ClassReader reader = new ClassReader(original);
-            ClassNode node = new ClassNode();
-            reader.accept(node, 0);
 
+            // Only the static method declarations are needed to recreate the wrapper
+            final boolean[] found = new boolean[2];
+            ClassReader reader = new ClassReader(transformed);
+            reader.accept(new ClassVisitor(Opcodes.ASM5) {
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    if ((access & Opcodes.ACC_STATIC) != 0) {
+                        if (name.equals("startService")) {
+                            found[0] = true;
+                        } else if (name.equals("stopService")) {
+                            found[1] = true;
+                        }
+                    }
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+            ServiceData.this.createWrapper(name, found[0], found[1]);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean transform(String name, ClassNode node) {
             List<MethodNode> methods = (List<MethodNode>) node.methods;
             boolean changed = false;
             boolean hasStart = false;
@@ -67,27 +163,9 @@ public class ServiceData {
                 }
             }
 
-            if (hasStart && hasStop) {
-                Type type = Type.getObjectType(name.replaceAll("\\.", "/"));
-                Class<? extends IServiceWrapper> clazz = ServiceWrapperGenerator.generateClass(type, ServiceData.this.loader);
-                try {
-                    ServiceData.this.serviceWrappers.add(clazz.newInstance());
-                } catch (Throwable e) {
-                    throw new RuntimeException("Failed creating service wrapper class " + clazz.getName(), e);
-                }
-            } else if (!hasStart && hasStop) {
-                throw new RuntimeException("Service class has a 'stopService' method, but not a 'startService' method");
-            } else if (hasStart && !hasStop) {
-                throw new RuntimeException("Service class has a 'startService' method, but not a 'stopService' method");
-            }
+            ServiceData.this.createWrapper(name, hasStart, hasStop);
 
-            if (changed) {
-                ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                node.accept(writer);
-                return writer.toByteArray();
-            } else {
-                return original;
-            }
+            return changed;
         }
     }
 
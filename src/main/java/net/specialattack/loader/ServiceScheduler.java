@@ -0,0 +1,315 @@
+package net.specialattack.loader;
+
+import net.specialattack.loader.management.BootProfile;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts services in waves: every service of a wave only depends on services of earlier waves, and the services of
+ * one wave are started concurrently on a bounded pool. Lazy services are left out unless an eager service depends on
+ * them, they can be started later through {@link #start(String)}.
+ */
+public class ServiceScheduler {
+
+    private final Map<String, IServiceWrapper> wrappers = new TreeMap<String, IServiceWrapper>();
+    private final Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+    private final Set<String> lazyServices = new HashSet<String>();
+    private final Set<String> started = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, Long> startTimes = new LinkedHashMap<String, Long>();
+    private List<List<String>> waves;
+    private volatile BootProfile profile;
+
+    public void setBootProfile(BootProfile profile) {
+        this.profile = profile;
+    }
+
+    public void addService(String name, IServiceWrapper wrapper, List<String> dependencies, boolean lazy) {
+        this.wrappers.put(name, wrapper);
+        this.dependencies.put(name, dependencies == null ? Collections.<String>emptyList() : dependencies);
+        if (lazy) {
+            this.lazyServices.add(name);
+        }
+    }
+
+    /**
+     * Orders the services into waves, failing before anything is started when a dependency is missing or circular.
+     */
+    public List<List<String>> getWaves() {
+        if (this.waves != null) {
+            return this.waves;
+        }
+
+        Map<String, Integer> pending = new TreeMap<String, Integer>();
+        Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+        for (String name : this.wrappers.keySet()) {
+            List<String> dependencies = this.dependencies.get(name);
+            for (String dependency : dependencies) {
+                if (!this.wrappers.containsKey(dependency)) {
+                    throw new RuntimeException("Service '" + name + "' depends on '" + dependency + "', which is not a service");
+                }
+                List<String> list = dependents.get(dependency);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    dependents.put(dependency, list);
+                }
+                list.add(name);
+            }
+            pending.put(name, new HashSet<String>(dependencies).size());
+        }
+
+        List<List<String>> waves = new ArrayList<List<String>>();
+        List<String> wave = new ArrayList<String>();
+        for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+            if (entry.getValue() == 0) {
+                wave.add(entry.getKey());
+            }
+        }
+        int scheduled = 0;
+        while (!wave.isEmpty()) {
+            waves.add(Collections.unmodifiableList(wave));
+            scheduled += wave.size();
+
+            List<String> next = new ArrayList<String>();
+            for (String name : wave) {
+                List<String> list = dependents.get(name);
+                if (list != null) {
+                    for (String dependent : new LinkedHashSet<String>(list)) {
+                        int remaining = pending.get(dependent) - 1;
+                        pending.put(dependent, remaining);
+                        if (remaining == 0) {
+                            next.add(dependent);
+                        }
+                    }
+                }
+            }
+            Collections.sort(next);
+            wave = next;
+        }
+
+        if (scheduled < this.wrappers.size()) {
+            List<String> cycle = new ArrayList<String>();
+            for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+                if (entry.getValue() > 0) {
+                    cycle.add(entry.getKey());
+                }
+            }
+            throw new RuntimeException("Circular service dependencies between " + cycle);
+        }
+
+        this.waves = Collections.unmodifiableList(waves);
+        return this.waves;
+    }
+
+    /**
+     * Returns the eager services and everything they depend on.
+     */
+    private Set<String> getRequired() {
+        Set<String> required = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        for (String name : this.wrappers.keySet()) {
+            if (!this.lazyServices.contains(name)) {
+                queue.add(name);
+            }
+        }
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (required.add(name)) {
+                queue.addAll(this.dependencies.get(name));
+            }
+        }
+        return required;
+    }
+
+    public void startAll(int threads) {
+        List<List<String>> waves = this.getWaves();
+        Set<String> required = this.getRequired();
+        if (required.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Service startup thread " + this.count.incrementAndGet());
+            }
+        });
+
+        try {
+            for (int i = 0; i < waves.size(); i++) {
+                List<String> wave = new ArrayList<String>(waves.get(i));
+                wave.retainAll(required);
+                List<Future<Long>> results = new ArrayList<Future<Long>>();
+                for (final String name : wave) {
+                    final IServiceWrapper wrapper = this.wrappers.get(name);
+                    results.add(executor.submit(new Callable<Long>() {
+
+                        @Override
+                        public Long call() throws Exception {
+                            return ServiceScheduler.this.startOnce(name, wrapper);
+                        }
+                    }));
+                }
+
+                RuntimeException failure = null;
+                for (int j = 0; j < wave.size(); j++) {
+                    String name = wave.get(j);
+                    try {
+                        long time = results.get(j).get();
+                        if (time < 0L) {
+                            // Started through start(String) meanwhile
+                            continue;
+                        }
+                        System.out.println(String.format("Started service %s in %.1f ms (wave %d)", name, time / 1000000.0D, i + 1));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted while starting services", e);
+                    } catch (ExecutionException e) {
+                        System.err.println("Failed starting service " + name);
+                        e.getCause().printStackTrace();
+                        if (failure == null) {
+                            failure = new RuntimeException("Failed starting service '" + name + "'", e.getCause());
+                        }
+                    }
+                }
+                if (failure != null) {
+                    // Services of later waves may depend on the one that failed
+                    throw failure;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Starts a single service on the calling thread, starting the services it depends on first.
+     */
+    public void start(String name) {
+        IServiceWrapper wrapper = this.wrappers.get(name);
+        if (wrapper == null) {
+            throw new RuntimeException("Unknown service '" + name + "'");
+        }
+        this.getWaves();
+        this.start(name, wrapper);
+    }
+
+    private void start(String name, IServiceWrapper wrapper) {
+        synchronized (wrapper) {
+            if (this.started.contains(name)) {
+                return;
+            }
+            for (String dependency : this.dependencies.get(name)) {
+                this.start(dependency, this.wrappers.get(dependency));
+            }
+            long time = this.startOnce(name, wrapper);
+            if (time >= 0L) {
+                System.out.println(String.format("Started service %s in %.1f ms", name, time / 1000000.0D));
+            }
+        }
+    }
+
+    /**
+     * Starts the service unless it is started already, returns the time it took or -1 if it was started already.
+     * Every start goes through here, so a service started on request during boot is not started twice.
+     */
+    private long startOnce(String name, IServiceWrapper wrapper) {
+        synchronized (wrapper) {
+            if (this.started.contains(name)) {
+                return -1L;
+            }
+            long start = System.nanoTime();
+            wrapper.start();
+            long time = System.nanoTime() - start;
+            this.started.add(name);
+            this.recordStart(name, time);
+            return time;
+        }
+    }
+
+    /**
+     * Stops a single service, stopping the started services that depend on it first.
+     */
+    public void stop(String name) {
+        IServiceWrapper wrapper = this.wrappers.get(name);
+        if (wrapper == null) {
+            throw new RuntimeException("Unknown service '" + name + "'");
+        }
+        for (Map.Entry<String, List<String>> entry : this.dependencies.entrySet()) {
+            if (entry.getValue().contains(name) && !entry.getKey().equals(name)) {
+                this.stop(entry.getKey());
+            }
+        }
+        synchronized (wrapper) {
+            if (!this.isStarted(name)) {
+                return;
+            }
+            wrapper.stop();
+            this.started.remove(name);
+            System.out.println("Stopped service " + name);
+        }
+    }
+
+    private void recordStart(String name, long time) {
+        synchronized (this.startTimes) {
+            this.startTimes.put(name, time);
+        }
+        BootProfile profile = this.profile;
+        if (profile != null) {
+            profile.recordServiceStart(name, time);
+        }
+    }
+
+    public boolean isStarted(String name) {
+        IServiceWrapper wrapper = this.wrappers.get(name);
+        if (wrapper instanceof LazyServiceWrapper && ((LazyServiceWrapper) wrapper).isStarted()) {
+            return true;
+        }
+        return this.started.contains(name);
+    }
+
+    public Set<String> getServices() {
+        return Collections.unmodifiableSet(this.wrappers.keySet());
+    }
+
+    /**
+     * Stops the started services in the reverse order of starting them.
+     */
+    public void stopAll() {
+        List<List<String>> waves = this.getWaves();
+        for (int i = waves.size() - 1; i >= 0; i--) {
+            List<String> wave = waves.get(i);
+            for (int j = wave.size() - 1; j >= 0; j--) {
+                if (!this.isStarted(wave.get(j))) {
+                    continue;
+                }
+                try {
+                    this.wrappers.get(wave.get(j)).stop();
+                    this.started.remove(wave.get(j));
+                } catch (Throwable e) {
+                    System.err.println("Failed stopping service " + wave.get(j));
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the start latency of every started service in nanoseconds.
+     */
+    public Map<String, Long> getStartTimes() {
+        synchronized (this.startTimes) {
+            return new LinkedHashMap<String, Long>(this.startTimes);
+        }
+    }
+
+}
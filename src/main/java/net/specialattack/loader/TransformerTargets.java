@@ -0,0 +1,78 @@
+package net.specialattack.loader;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The classes a targeted transformer applies to: exact class names, packages (including their sub packages) and a
+ * predicate evaluated on the metadata of every class seen during discovery. Targets may be added at any time, loaders
+ * pick up the changes on their next lookup.
+ */
+public class TransformerTargets {
+
+    private final Set<String> classes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> packages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Weak, so targets shared with a closed loader don't keep it alive
+    private final Set<BootClassLoader> loaders = Collections.newSetFromMap(new WeakHashMap<BootClassLoader, Boolean>());
+    private volatile ITargetPredicate predicate;
+    private volatile int version;
+
+    public TransformerTargets addClass(String name) {
+        if (this.classes.add(name)) {
+            this.changed();
+        }
+        return this;
+    }
+
+    public TransformerTargets addPackage(String name) {
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (this.packages.add(name)) {
+            this.changed();
+        }
+        return this;
+    }
+
+    public TransformerTargets setPredicate(ITargetPredicate predicate) {
+        this.predicate = predicate;
+        this.changed();
+        return this;
+    }
+
+    public Set<String> getClasses() {
+        return Collections.unmodifiableSet(this.classes);
+    }
+
+    public Set<String> getPackages() {
+        return Collections.unmodifiableSet(this.packages);
+    }
+
+    public ITargetPredicate getPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * Incremented on every change.
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Registers a loader whose routing index has to be rebuilt when the targets change.
+     */
+    synchronized void addLoader(BootClassLoader loader) {
+        this.loaders.add(loader);
+    }
+
+    private synchronized void changed() {
+        this.version++;
+        for (BootClassLoader loader : this.loaders) {
+            loader.invalidateTransformerIndex();
+        }
+    }
+
+}
@@ -1,10 +1,40 @@
 package net.specialattack.loader;
 
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public final class Util {
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Later versions only allow unmapping through Unsafe.invokeCleaner
+    private static final Object UNSAFE;
+    private static final Method UNMAPPER;
+
+    static {
+        Object unsafe = null;
+        Method unmapper = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            unmapper = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Exception e) {
+            unmapper = null;
+        }
+        UNSAFE = unsafe;
+        UNMAPPER = unmapper;
+    }
+
     private Util() {
     }
 
@@ -17,4 +47,70 @@ public final class Util {
         }
     }
 
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 is not available", e);
+        }
+    }
+
+    public static String sha1(String text) {
+        MessageDigest digest = sha1();
+        try {
+            return toHex(digest.digest(text.getBytes("UTF-8")));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String sha1(File file) throws IOException {
+        MessageDigest digest = sha1();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > 0) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                digest.update(buffer);
+                unmap(buffer);
+            }
+            return toHex(digest.digest());
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Releases a mapped buffer right away instead of when it is garbage collected, until then the file can't be
+     * deleted or replaced on some platforms. The buffer and every view of it must not be used afterwards.
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (UNMAPPER != null) {
+                UNMAPPER.invoke(UNSAFE, buffer);
+            } else {
+                // Java 7 and 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            // Left to the garbage collector
+        }
+    }
+
+    public static String toHex(byte[] data) {
+        char[] result = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            result[i * 2] = HEX[(data[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX[data[i] & 0xF];
+        }
+        return new String(result);
+    }
+
 }
@@ -0,0 +1,98 @@
+package net.specialattack.loader.asm;
+
+import net.specialattack.loader.ClassMetadata;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ClassMetadataReader extends ClassVisitor {
+
+    private String name;
+    private String superName;
+    private List<String> interfaces;
+    private int access;
+    private List<AnnotationNode> annotations = new ArrayList<AnnotationNode>();
+
+    private ClassMetadataReader() {
+        super(Opcodes.ASM5);
+    }
+
+    public static ClassMetadata read(byte[] data) {
+        ClassMetadataReader visitor = new ClassMetadataReader();
+        new ClassReader(data).accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return visitor.toMetadata();
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.access = access;
+        this.name = name.replace('/', '.');
+        this.superName = superName == null ? null : superName.replace('/', '.');
+        if (interfaces == null || interfaces.length == 0) {
+            this.interfaces = Collections.emptyList();
+        } else {
+            String[] names = new String[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                names[i] = interfaces[i].replace('/', '.');
+            }
+            this.interfaces = Arrays.asList(names);
+        }
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        AnnotationNode node = new AnnotationNode(desc);
+        this.annotations.add(node);
+        return node;
+    }
+
+    private ClassMetadata toMetadata() {
+        Map<String, Map<String, Object>> annotations;
+        if (this.annotations.isEmpty()) {
+            annotations = Collections.emptyMap();
+        } else {
+            annotations = new HashMap<String, Map<String, Object>>();
+            for (AnnotationNode node : this.annotations) {
+                annotations.put(node.desc, toMap(node));
+            }
+        }
+        return new ClassMetadata(this.name, this.superName, this.interfaces, this.access, annotations);
+    }
+
+    private static Map<String, Object> toMap(AnnotationNode node) {
+        if (node.values == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (int i = 0; i + 1 < node.values.size(); i += 2) {
+            result.put((String) node.values.get(i), toValue(node.values.get(i + 1)));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Object toValue(Object value) {
+        if (value instanceof AnnotationNode) {
+            return toMap((AnnotationNode) value);
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> result = new ArrayList<Object>(list.size());
+            for (Object element : list) {
+                result.add(toValue(element));
+            }
+            return Collections.unmodifiableList(result);
+        }
+        return value;
+    }
+
+}
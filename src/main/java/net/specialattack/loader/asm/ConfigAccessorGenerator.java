@@ -0,0 +1,101 @@
+package net.specialattack.loader.asm;
+
+import net.specialattack.loader.BootClassLoader;
+import org.objectweb.asm.*;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Generates implementations of service configuration interfaces. Every method gets a final field that the constructor
+ * fills from a {@link net.specialattack.loader.config.ConfigurationSnapshot}, the method only returns the field.
+ */
+public class ConfigAccessorGenerator implements Opcodes {
+
+    private static final String SNAPSHOT = "net/specialattack/loader/config/ConfigurationSnapshot";
+
+    /**
+     * Generates the implementation of the interface, with a constructor taking the snapshot to read the values from.
+     *
+     * @param keys The configuration key of every method of the interface
+     */
+    public static Class<?> generateClass(Class<?> type, Map<Method, String> keys, BootClassLoader loader) {
+        Type interfaceType = Type.getType(type);
+        Type accessorType = Type.getObjectType(interfaceType.getInternalName() + "$config");
+
+        ClassWriter writer = new ClassWriter(0);
+        CheckClassAdapter cw = new CheckClassAdapter(writer);
+
+        MethodVisitor mv;
+
+        cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, accessorType.getInternalName(), null, "java/lang/Object", new String[] { interfaceType.getInternalName() });
+
+        cw.visitSource(".dynamic", null);
+
+        for (Method method : keys.keySet()) {
+            cw.visitField(ACC_PRIVATE | ACC_FINAL, method.getName(), Type.getDescriptor(method.getReturnType()), null, null).visitEnd();
+        }
+
+        {
+            mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(L" + SNAPSHOT + ";)V", null, null);
+            mv.visitCode();
+            Label l0 = new Label();
+            mv.visitLabel(l0);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            for (Map.Entry<Method, String> entry : keys.entrySet()) {
+                Class<?> returnType = entry.getKey().getReturnType();
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitLdcInsn(entry.getValue());
+                mv.visitMethodInsn(INVOKEVIRTUAL, SNAPSHOT, getterName(returnType), "(Ljava/lang/String;)" + Type.getDescriptor(returnType), false);
+                mv.visitFieldInsn(PUTFIELD, accessorType.getInternalName(), entry.getKey().getName(), Type.getDescriptor(returnType));
+            }
+            mv.visitInsn(RETURN);
+            Label l1 = new Label();
+            mv.visitLabel(l1);
+            mv.visitLocalVariable("this", accessorType.getDescriptor(), null, l0, l1, 0);
+            mv.visitLocalVariable("snapshot", "L" + SNAPSHOT + ";", null, l0, l1, 1);
+            mv.visitMaxs(4, 2);
+            mv.visitEnd();
+        }
+        for (Method method : keys.keySet()) {
+            Type returnType = Type.getType(method.getReturnType());
+            mv = cw.visitMethod(ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), null, null);
+            mv.visitCode();
+            Label l0 = new Label();
+            mv.visitLabel(l0);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, accessorType.getInternalName(), method.getName(), returnType.getDescriptor());
+            mv.visitInsn(returnType.getOpcode(IRETURN));
+            Label l1 = new Label();
+            mv.visitLabel(l1);
+            mv.visitLocalVariable("this", accessorType.getDescriptor(), null, l0, l1, 0);
+            mv.visitMaxs(returnType.getSize(), 1);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+
+        return loader.define(accessorType.getClassName(), writer.toByteArray());
+    }
+
+    /**
+     * Returns the method of the snapshot reading a value of the type, or null if the type is not supported.
+     */
+    public static String getterName(Class<?> type) {
+        if (type == String.class) {
+            return "getString";
+        } else if (type == int.class) {
+            return "getInt";
+        } else if (type == long.class) {
+            return "getLong";
+        } else if (type == double.class) {
+            return "getDouble";
+        } else if (type == boolean.class) {
+            return "getBoolean";
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,135 @@
+package net.specialattack.loader.cache;
+
+import net.specialattack.loader.management.StripedCounter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds raw class bytes read by a loader, according to a {@link Policy}.
+ */
+public class ClassBytesCache {
+
+    private final Policy policy;
+    private final long maxBytes;
+    private final Map<String, byte[]> entries;
+    private long bytes;
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    public ClassBytesCache(Policy policy, long maxBytes) {
+        this.policy = policy;
+        this.maxBytes = maxBytes;
+        if (policy == Policy.LRU) {
+            this.entries = new LinkedHashMap<String, byte[]>(64, 0.75F, true);
+        } else {
+            this.entries = new ConcurrentHashMap<String, byte[]>();
+        }
+    }
+
+    public static Policy parsePolicy(String policy) {
+        try {
+            return Policy.valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown class bytes cache policy '" + policy + "'");
+        }
+    }
+
+    public byte[] get(String name) {
+        byte[] data;
+        if (this.policy == Policy.LRU) {
+            synchronized (this) {
+                data = this.entries.get(name);
+            }
+        } else {
+            data = this.entries.get(name);
+        }
+
+        if (data != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return data;
+    }
+
+    public void put(String name, byte[] data) {
+        switch (this.policy) {
+            case DISCARD:
+                break;
+            case RETAIN:
+                this.entries.put(name, data);
+                break;
+            case LRU:
+                if (data.length > this.maxBytes) {
+                    break;
+                }
+                synchronized (this) {
+                    byte[] previous = this.entries.put(name, data);
+                    this.bytes += data.length - (previous == null ? 0 : previous.length);
+
+                    Iterator<byte[]> iterator = this.entries.values().iterator();
+                    while (this.bytes > this.maxBytes && iterator.hasNext()) {
+                        this.bytes -= iterator.next().length;
+                        iterator.remove();
+                        this.evictions.increment();
+                    }
+                }
+                break;
+        }
+    }
+
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public int getSize() {
+        if (this.policy == Policy.LRU) {
+            synchronized (this) {
+                return this.entries.size();
+            }
+        }
+        return this.entries.size();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ClassBytesCache[" + this.policy + ", " + this.getSize() + " classes, " + this.getHits() + " hits, " + this.getMisses() + " misses, " + this.getEvictions() + " evictions]";
+    }
+
+    public enum Policy {
+        /**
+         * Keep the bytes of every class for the lifetime of the loader.
+         */
+        RETAIN,
+        /**
+         * Don't keep any bytes, classes are read again when they are needed again.
+         */
+        DISCARD,
+        /**
+         * Keep the most recently used bytes, up to a total size.
+         */
+        LRU
+    }
+
+}
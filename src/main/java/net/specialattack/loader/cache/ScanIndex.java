@@ -0,0 +1,199 @@
+package net.specialattack.loader.cache;
+
+import net.specialattack.loader.Util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Remembers the discovery results of service jars, so jars that did not change since the last start don't need to
+ * be scanned again. A jar matches its entry when size and modification time are unchanged, or when its content hash
+ * is.
+ */
+public class ScanIndex {
+
+    private static final int MAGIC = 0x424C5349;
+    private static final int VERSION = 3;
+
+    private final File file;
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+    private boolean dirty;
+
+    public ScanIndex(File file) {
+        this.file = file;
+    }
+
+    public synchronized void load() {
+        this.entries.clear();
+        this.dirty = false;
+        if (!this.file.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String hash = in.readUTF();
+                List<String> services = readNames(in);
+                Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+                for (String service : services) {
+                    dependencies.put(service, readNames(in));
+                }
+                List<String> lazyServices = readNames(in);
+                List<String> trackableClasses = readNames(in);
+                this.entries.put(path, new Entry(size, lastModified, hash, services, Collections.unmodifiableMap(dependencies), lazyServices, trackableClasses));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed reading scan index " + this.file + ", rescanning all service jars");
+            this.entries.clear();
+        } finally {
+            Util.close(in);
+        }
+    }
+
+    public synchronized void save() {
+        if (!this.dirty) {
+            return;
+        }
+
+        File parent = this.file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            System.err.println("Failed creating folder for scan index " + this.file);
+            return;
+        }
+
+        File temp = new File(this.file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.entries.size());
+            for (Map.Entry<String, Entry> mapEntry : this.entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.hash);
+                writeNames(out, entry.services);
+                for (String service : entry.services) {
+                    List<String> dependencies = entry.dependencies.get(service);
+                    writeNames(out, dependencies == null ? Collections.<String>emptyList() : dependencies);
+                }
+                writeNames(out, entry.lazyServices);
+                writeNames(out, entry.trackableClasses);
+            }
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(this.file) && (!this.file.delete() || !temp.renameTo(this.file))) {
+                throw new IOException("Failed replacing " + this.file);
+            }
+            this.dirty = false;
+        } catch (IOException e) {
+            System.err.println("Failed writing scan index " + this.file);
+            e.printStackTrace();
+        } finally {
+            Util.close(out);
+        }
+    }
+
+    /**
+     * Returns the stored results for the jar, or null if the jar changed or was never scanned.
+     */
+    public synchronized Entry lookup(File jar) {
+        Entry entry = this.entries.get(jar.getAbsolutePath());
+        if (entry == null) {
+            return null;
+        }
+
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        if (entry.size == size && entry.lastModified == lastModified) {
+            return entry;
+        }
+        if (entry.size != size) {
+            return null;
+        }
+
+        // Touched but possibly unchanged, compare contents
+        try {
+            if (!entry.hash.equals(Util.sha1(jar))) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        entry = new Entry(size, lastModified, entry.hash, entry.services, entry.dependencies, entry.lazyServices, entry.trackableClasses);
+        this.entries.put(jar.getAbsolutePath(), entry);
+        this.dirty = true;
+        return entry;
+    }
+
+    public synchronized void update(File jar, Collection<String> services, Map<String, List<String>> dependencies, Collection<String> lazyServices, Collection<String> trackableClasses) throws IOException {
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        String hash = Util.sha1(jar);
+        this.entries.put(jar.getAbsolutePath(), new Entry(size, lastModified, hash, new ArrayList<String>(services), new HashMap<String, List<String>>(dependencies), new ArrayList<String>(lazyServices), new ArrayList<String>(trackableClasses)));
+        this.dirty = true;
+    }
+
+    /**
+     * Forgets every jar that is not in the given list.
+     */
+    public synchronized void retain(Collection<File> jars) {
+        Set<String> paths = new HashSet<String>();
+        for (File jar : jars) {
+            paths.add(jar.getAbsolutePath());
+        }
+        if (this.entries.keySet().retainAll(paths)) {
+            this.dirty = true;
+        }
+    }
+
+    private static List<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    public static class Entry {
+
+        public final long size;
+        public final long lastModified;
+        public final String hash;
+        public final List<String> services;
+        public final Map<String, List<String>> dependencies;
+        public final List<String> lazyServices;
+        public final List<String> trackableClasses;
+
+        private Entry(long size, long lastModified, String hash, List<String> services, Map<String, List<String>> dependencies, List<String> lazyServices, List<String> trackableClasses) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.services = services;
+            this.dependencies = dependencies;
+            this.lazyServices = lazyServices;
+            this.trackableClasses = trackableClasses;
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package net.specialattack.loader.cache;
+
+import net.specialattack.loader.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of transformed class bytes. Records present when the store is opened are served from a
+ * memory-mapped view of the file, new records are appended to the end.
+ * <p/>
+ * Layout: {@code magic, version} followed by records of {@code name length, name (UTF-8), length, crc32, data}.
+ */
+public class TransformedClassCache {
+
+    private static final int MAGIC = 0x424C4343;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+
+    public TransformedClassCache(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed creating cache folder " + parent);
+        }
+
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = this.raf.getChannel();
+
+        long size = this.channel.size();
+        long end = 0;
+        if (size >= HEADER_SIZE && size <= Integer.MAX_VALUE) {
+            this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            end = this.readEntries();
+        }
+
+        if (end < HEADER_SIZE) {
+            // New, foreign or corrupt file, start over
+            this.entries.clear();
+            this.mapped = null;
+            this.channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            this.channel.write(header, 0);
+            end = HEADER_SIZE;
+        } else if (end < size) {
+            // Drop a partially written trailing record
+            this.channel.truncate(end);
+        }
+        this.channel.position(end);
+    }
+
+    private long readEntries() {
+        ByteBuffer buffer = this.mapped.duplicate();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return 0;
+        }
+
+        int end = buffer.position();
+        try {
+            while (buffer.hasRemaining()) {
+                int nameLength = buffer.getShort() & 0xFFFF;
+                byte[] nameBytes = new byte[nameLength];
+                buffer.get(nameBytes);
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                int offset = buffer.position();
+                buffer.position(offset + length);
+                this.entries.put(new String(nameBytes, "UTF-8"), new Entry(offset, length, checksum));
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+        } catch (IOException e) {
+        }
+        return end;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public synchronized byte[] get(String name) {
+        Entry entry = this.entries.get(name);
+        if (entry == null || entry.offset < 0) {
+            return null;
+        }
+        ByteBuffer buffer = this.mapped.duplicate();
+        buffer.position(entry.offset);
+        byte[] data = new byte[entry.length];
+        buffer.get(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != entry.checksum) {
+            return null;
+        }
+        return data;
+    }
+
+    public synchronized void put(String name, byte[] data) {
+        if (this.channel == null || this.entries.containsKey(name)) {
+            return;
+        }
+
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            byte[] nameBytes = name.getBytes("UTF-8");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(nameBytes.length + data.length + 10);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(nameBytes.length);
+            out.write(nameBytes);
+            out.writeInt(data.length);
+            out.writeInt((int) crc.getValue());
+            out.write(data);
+            out.flush();
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+
+            // Appended records are not mapped, they only become readable after reopening
+            this.entries.put(name, new Entry(-1, data.length, (int) crc.getValue()));
+        } catch (IOException e) {
+            System.err.println("Failed writing class cache " + this.file + ", disabling it");
+            e.printStackTrace();
+            this.close();
+        }
+    }
+
+    public synchronized void close() {
+        Util.close(this.channel);
+        Util.close(this.raf);
+        this.channel = null;
+        this.raf = null;
+    }
+
+    private static class Entry {
+
+        private final int offset;
+        private final int length;
+        private final int checksum;
+
+        private Entry(int offset, int length, int checksum) {
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package net.specialattack.loader.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets the key and default value of a method of a service configuration interface, see
+ * {@link ServiceConfiguration}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ConfigValue {
+
+    /**
+     * The default value, written to the file when the key is missing.
+     */
+    String value() default "";
+
+    /**
+     * The key in the file, by default the method name without get or is, in lower case with dashes between words.
+     */
+    String key() default "";
+
+}
@@ -1,13 +1,34 @@
 package net.specialattack.loader.config;
 
 import java.io.*;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * A key=value configuration file. Loading parses every value once into a {@link ConfigurationSnapshot} which is
+ * swapped in as a whole, reads never lock or parse. When watched the file is reloaded whenever it changes, and
+ * listeners are told what changed.
+ */
 public class Configuration {
 
+    private static final long RELOAD_DELAY = 100L;
+
     private File file;
     private TreeMap<String, String> defaults = new TreeMap<String, String>();
-    private TreeMap<String, String> entries;
+    private Map<String, Class<?>> types = new HashMap<String, Class<?>>();
+    private volatile ConfigurationSnapshot snapshot;
+    private final List<IConfigurationListener> listeners = new CopyOnWriteArrayList<IConfigurationListener>();
+    private WatchService watchService;
 
     public Configuration(File file) {
         if (file == null) {
@@ -29,58 +50,58 @@ public class Configuration {
 
     public void setDefault(String key, int value) {
         this.defaults.put(key, "" + value);
+        this.types.put(key, int.class);
+    }
+
+    public void setDefault(String key, long value) {
+        this.defaults.put(key, "" + value);
+        this.types.put(key, long.class);
+    }
+
+    public void setDefault(String key, double value) {
+        this.defaults.put(key, "" + value);
+        this.types.put(key, double.class);
     }
 
     public void setDefault(String key, boolean value) {
         this.defaults.put(key, "" + value);
     }
 
+    /**
+     * Returns the values as they are now, values of the returned snapshot don't change on a reload.
+     */
+    public ConfigurationSnapshot getSnapshot() {
+        ConfigurationSnapshot snapshot = this.snapshot;
+        return snapshot == null ? ConfigurationSnapshot.EMPTY : snapshot;
+    }
+
     public String getString(String key) {
-        if (this.entries.containsKey(key)) {
-            return this.entries.get(key);
-        }
-        if (this.defaults.containsKey(key)) {
-            return this.defaults.get(key);
-        }
-        return null;
+        return this.getSnapshot().getString(key);
     }
 
     public int getInt(String key) {
-        if (this.entries.containsKey(key)) {
-            String entry = this.entries.get(key);
-            try {
-                return Integer.parseInt(entry);
-            } catch (NumberFormatException e) {
-                throw new ConfigurationException(e);
-            }
-        }
-        if (this.defaults.containsKey(key)) {
-            String entry = this.defaults.get(key);
-            try {
-                return Integer.parseInt(entry);
-            } catch (NumberFormatException e) {
-                throw new ConfigurationException(e);
-            }
-        }
-        return 0;
+        return this.getSnapshot().getInt(key);
     }
 
     public boolean getBoolean(String key) {
-        if (this.entries.containsKey(key)) {
-            String entry = this.entries.get(key);
-            return Boolean.parseBoolean(entry);
-        }
-        if (this.defaults.containsKey(key)) {
-            String entry = this.defaults.get(key);
-            return Boolean.parseBoolean(entry);
-        }
-        return false;
+        return this.getSnapshot().getBoolean(key);
     }
 
-    public void load() {
+    public void addListener(IConfigurationListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(IConfigurationListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Reads the file and replaces the current values. When reading fails the current values are kept.
+     */
+    public synchronized void load() {
         BufferedReader reader = null;
 
-        this.entries = new TreeMap<String, String>();
+        TreeMap<String, String> entries = new TreeMap<String, String>();
 
         try {
             reader = new BufferedReader(new FileReader(this.file));
@@ -91,13 +112,13 @@ public class Configuration {
             while ((line = reader.readLine()) != null) {
                 lineNumber++;
                 line = line.trim();
-                if (!line.startsWith("#")) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
                     if (line.indexOf('#') > 0) {
                         line = line.substring(0, line.indexOf('#')).trim();
                     }
                     String[] split = line.split("=", 2);
                     if (split.length >= 2) {
-                        this.entries.put(split[0].trim(), split[1].trim());
+                        entries.put(split[0].trim(), split[1].trim());
                     } else {
                         throw new ConfigurationException("Configuration requires 'key=value' on line " + lineNumber);
                     }
@@ -117,20 +138,34 @@ public class Configuration {
         boolean defaultMissing = false;
 
         for (String key : this.defaults.keySet()) {
-            if (!this.entries.containsKey(key)) {
+            if (!entries.containsKey(key)) {
                 defaultMissing = true;
             }
         }
 
+        TreeMap<String, String> values = new TreeMap<String, String>(this.defaults);
+        values.putAll(entries);
+        ConfigurationSnapshot snapshot = new ConfigurationSnapshot(values);
+        for (Map.Entry<String, Class<?>> entry : this.types.entrySet()) {
+            // Fail now rather than when the value is used
+            if (entry.getValue() == int.class) {
+                snapshot.getInt(entry.getKey());
+            } else if (entry.getValue() == long.class) {
+                snapshot.getLong(entry.getKey());
+            } else {
+                snapshot.getDouble(entry.getKey());
+            }
+        }
+
         if (defaultMissing) {
             TreeMap<String, String> merged = new TreeMap<String, String>();
 
             for (String key : this.defaults.keySet()) {
-                if (!this.entries.containsKey(key)) {
+                if (!entries.containsKey(key)) {
                     merged.put(key, this.defaults.get(key) + " #GENERATED DEFAULT");
                 }
             }
-            merged.putAll(this.entries);
+            merged.putAll(entries);
 
             BufferedWriter writer = null;
 
@@ -152,6 +187,86 @@ public class Configuration {
                 }
             }
         }
+
+        ConfigurationSnapshot previous = this.snapshot;
+        this.snapshot = snapshot;
+        if (previous != null && !previous.getChanged(snapshot).isEmpty()) {
+            for (IConfigurationListener listener : this.listeners) {
+                try {
+                    listener.configurationChanged(previous, snapshot);
+                } catch (Throwable e) {
+                    System.err.println("Failed applying configuration changes of " + this.file);
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts reloading the file whenever it changes, on a background thread.
+     */
+    public synchronized void watch() throws IOException {
+        if (this.watchService != null) {
+            return;
+        }
+        final Path path = this.file.getAbsoluteFile().toPath();
+        final WatchService watchService = FileSystems.getDefault().newWatchService();
+        path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watchService = watchService;
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        WatchKey key = watchService.take();
+                        boolean changed = Configuration.this.isChanged(key, path);
+                        if (!changed) {
+                            continue;
+                        }
+                        // Editors write in several steps, wait for the file to settle
+                        Thread.sleep(RELOAD_DELAY);
+                        while ((key = watchService.poll()) != null) {
+                            Configuration.this.isChanged(key, path);
+                        }
+                        try {
+                            Configuration.this.load();
+                        } catch (ConfigurationException e) {
+                            System.err.println("Failed reloading configuration " + Configuration.this.file + ", keeping the current values: " + e.getMessage());
+                        }
+                    }
+                } catch (ClosedWatchServiceException e) {
+                } catch (InterruptedException e) {
+                }
+            }
+        }, "Configuration watcher " + this.file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private boolean isChanged(WatchKey key, Path path) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || path.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    public synchronized void close() {
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+            } catch (IOException e) {
+            }
+            this.watchService = null;
+        }
     }
 
 }
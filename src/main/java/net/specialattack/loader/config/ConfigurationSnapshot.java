@@ -0,0 +1,123 @@
+package net.specialattack.loader.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The values of a configuration at one point in time, parsed once when loading. Snapshots never change, so reading
+ * several values from one snapshot gives a consistent view even while the file is reloaded.
+ */
+public final class ConfigurationSnapshot {
+
+    static final ConfigurationSnapshot EMPTY = new ConfigurationSnapshot(Collections.<String, String>emptyMap());
+
+    private final Map<String, Value> values;
+
+    ConfigurationSnapshot(Map<String, String> entries) {
+        Map<String, Value> values = new HashMap<String, Value>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            values.put(entry.getKey(), new Value(entry.getValue()));
+        }
+        this.values = values;
+    }
+
+    public boolean contains(String key) {
+        return this.values.containsKey(key);
+    }
+
+    public String getString(String key) {
+        Value value = this.values.get(key);
+        return value == null ? null : value.text;
+    }
+
+    public int getInt(String key) {
+        Value value = this.values.get(key);
+        if (value == null) {
+            return 0;
+        }
+        if (value.number == null || value.number != value.number.intValue()) {
+            throw new ConfigurationException("Configuration value '" + key + "' is not a number: " + value.text);
+        }
+        return value.number.intValue();
+    }
+
+    public long getLong(String key) {
+        Value value = this.values.get(key);
+        if (value == null) {
+            return 0L;
+        }
+        if (value.number == null) {
+            throw new ConfigurationException("Configuration value '" + key + "' is not a number: " + value.text);
+        }
+        return value.number;
+    }
+
+    public double getDouble(String key) {
+        Value value = this.values.get(key);
+        if (value == null) {
+            return 0.0D;
+        }
+        if (value.decimal == null) {
+            throw new ConfigurationException("Configuration value '" + key + "' is not a number: " + value.text);
+        }
+        return value.decimal;
+    }
+
+    public boolean getBoolean(String key) {
+        Value value = this.values.get(key);
+        return value != null && value.bool;
+    }
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(this.values.keySet());
+    }
+
+    /**
+     * Returns the keys whose value differs between the snapshots, including keys only one of them has.
+     */
+    public Set<String> getChanged(ConfigurationSnapshot other) {
+        Set<String> changed = new TreeSet<String>();
+        for (Map.Entry<String, Value> entry : this.values.entrySet()) {
+            Value value = other.values.get(entry.getKey());
+            if (value == null || !value.text.equals(entry.getValue().text)) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String key : other.values.keySet()) {
+            if (!this.values.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    private static final class Value {
+
+        private final String text;
+        private final Long number;
+        private final Double decimal;
+        private final boolean bool;
+
+        private Value(String text) {
+            this.text = text;
+            Long number = null;
+            Double decimal = null;
+            try {
+                number = Long.valueOf(text);
+                decimal = number.doubleValue();
+            } catch (NumberFormatException e) {
+                try {
+                    decimal = Double.valueOf(text);
+                } catch (NumberFormatException e1) {
+                }
+            }
+            this.number = number;
+            this.decimal = decimal;
+            this.bool = Boolean.parseBoolean(text);
+        }
+    }
+
+}
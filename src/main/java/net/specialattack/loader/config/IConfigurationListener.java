@@ -0,0 +1,10 @@
+package net.specialattack.loader.config;
+
+public interface IConfigurationListener {
+
+    /**
+     * Called after a reload changed at least one value, on the thread that reloaded the configuration.
+     */
+    void configurationChanged(ConfigurationSnapshot previous, ConfigurationSnapshot current);
+
+}
@@ -0,0 +1,245 @@
+package net.specialattack.loader.config;
+
+import net.specialattack.loader.BootClassLoader;
+import net.specialattack.loader.asm.ConfigAccessorGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Configuration of services. Every service jar has its own file in the config folder, named after the jar. A service
+ * declares an interface with a method per value and asks for it with {@link #get(Class)}:
+ * <pre>
+ * public interface ServerConfig {
+ *     &#64;ConfigValue("6667")
+ *     int getPort();
+ *
+ *     &#64;ConfigValue(key = "server-name", value = "irc")
+ *     String getName();
+ * }
+ * </pre>
+ * The interface is implemented with a generated class that holds every value in a final field, so reading a value is
+ * a field load. Supported types are String, int, long, double and boolean. Missing keys are added to the file with
+ * their default value.
+ * <p/>
+ * The values of a returned object never change. When the file is reloaded {@link #get(Class)} returns a new object
+ * with the new values, services that want to see changes should call it again instead of keeping the object forever.
+ */
+public final class ServiceConfiguration {
+
+    private static final Map<ClassLoader, Configuration> FILES = new HashMap<ClassLoader, Configuration>();
+    private static final Map<Class<?>, Accessor> ACCESSORS = new ConcurrentHashMap<Class<?>, Accessor>();
+    private static final File FOLDER = new File("config");
+    private static volatile boolean watch;
+
+    private ServiceConfiguration() {
+    }
+
+    /**
+     * Sets whether service configuration files are reloaded when they change, for files opened after this call.
+     */
+    public static void setWatch(boolean watch) {
+        ServiceConfiguration.watch = watch;
+    }
+
+    /**
+     * Returns the configuration values of the jar the interface belongs to.
+     */
+    public static <T> T get(Class<T> type) {
+        Accessor accessor = ACCESSORS.get(type);
+        if (accessor == null) {
+            accessor = createAccessor(type);
+        }
+        return type.cast(accessor.get());
+    }
+
+    private static synchronized Accessor createAccessor(Class<?> type) {
+        Accessor accessor = ACCESSORS.get(type);
+        if (accessor != null) {
+            return accessor;
+        }
+        if (!type.isInterface()) {
+            throw new RuntimeException("Service configuration " + type.getName() + " is not an interface");
+        }
+        if (!(type.getClassLoader() instanceof BootClassLoader)) {
+            throw new RuntimeException("Service configuration " + type.getName() + " is not part of a service jar");
+        }
+        BootClassLoader loader = (BootClassLoader) type.getClassLoader();
+
+        Method[] methods = type.getMethods();
+        Arrays.sort(methods, new Comparator<Method>() {
+
+            @Override
+            public int compare(Method first, Method second) {
+                return first.getName().compareTo(second.getName());
+            }
+        });
+        Configuration config = getConfiguration(loader);
+        Map<Method, String> keys = new LinkedHashMap<Method, String>();
+        for (Method method : methods) {
+            Class<?> returnType = method.getReturnType();
+            if (method.getParameterTypes().length > 0 || ConfigAccessorGenerator.getterName(returnType) == null) {
+                throw new RuntimeException("Service configuration method " + type.getName() + "." + method.getName() + " has to take no parameters and return String, int, long, double or boolean");
+            }
+            ConfigValue annotation = method.getAnnotation(ConfigValue.class);
+            String key = annotation != null && !annotation.key().isEmpty() ? annotation.key() : toKey(method.getName());
+            String value = annotation != null ? annotation.value() : "";
+            try {
+                if (returnType == String.class) {
+                    config.setDefault(key, value);
+                } else if (returnType == boolean.class) {
+                    config.setDefault(key, Boolean.parseBoolean(value));
+                } else if (returnType == int.class) {
+                    config.setDefault(key, value.isEmpty() ? 0 : Integer.parseInt(value));
+                } else if (returnType == long.class) {
+                    config.setDefault(key, value.isEmpty() ? 0L : Long.parseLong(value));
+                } else {
+                    config.setDefault(key, value.isEmpty() ? 0.0D : Double.parseDouble(value));
+                }
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid default value '" + value + "' of " + type.getName() + "." + method.getName(), e);
+            }
+            keys.put(method, key);
+        }
+        // Read again, writing the defaults that were just added
+        config.load();
+
+        Class<?> accessorClass = ConfigAccessorGenerator.generateClass(type, keys, loader);
+        try {
+            accessor = new Accessor(config, accessorClass.getConstructor(ConfigurationSnapshot.class));
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException("Generated configuration class " + accessorClass.getName() + " has no constructor", e);
+        }
+        ACCESSORS.put(type, accessor);
+        return accessor;
+    }
+
+    private static Configuration getConfiguration(BootClassLoader loader) {
+        Configuration config = FILES.get(loader);
+        if (config != null) {
+            return config;
+        }
+
+        URL[] urls = loader.getURLs();
+        String name = urls.length > 0 ? getFileName(urls[0]) : "service";
+        if (name.endsWith(".jar")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        if (!FOLDER.isDirectory() && !FOLDER.mkdirs()) {
+            throw new RuntimeException("Failed creating config folder");
+        }
+        config = new Configuration(new File(FOLDER, name + ".cfg"));
+        if (watch) {
+            try {
+                config.watch();
+            } catch (IOException e) {
+                System.err.println("Failed watching service configuration " + name + ".cfg, changes need a restart");
+                e.printStackTrace();
+            }
+        }
+        FILES.put(loader, config);
+        return config;
+    }
+
+    /**
+     * Decoded name of the file, so a jar in a folder with spaces doesn't give a config file with %20 in its name.
+     */
+    private static String getFileName(URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI()).getName();
+            } catch (URISyntaxException e) {
+                // Not escaped properly, use the path as it is
+            } catch (IllegalArgumentException e) {
+                // Not a plain file path, for example a UNC path
+            }
+        }
+        return new File(url.getPath()).getName();
+    }
+
+    /**
+     * Turns getMaxUsers into max-users.
+     */
+    private static String toKey(String name) {
+        if (name.startsWith("get") && name.length() > 3 && Character.isUpperCase(name.charAt(3))) {
+            name = name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2 && Character.isUpperCase(name.charAt(2))) {
+            name = name.substring(2);
+        }
+        StringBuilder key = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                boolean wordStart = i > 0 && (!Character.isUpperCase(name.charAt(i - 1)) || (i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1))));
+                if (wordStart) {
+                    key.append('-');
+                }
+                key.append(Character.toLowerCase(c));
+            } else {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Creates the object for the current snapshot of a file, once per snapshot.
+     */
+    private static class Accessor {
+
+        private final Configuration config;
+        private final Constructor<?> constructor;
+        private volatile Cached cached = new Cached(null, null);
+
+        private Accessor(Configuration config, Constructor<?> constructor) {
+            this.config = config;
+            this.constructor = constructor;
+        }
+
+        private Object get() {
+            ConfigurationSnapshot snapshot = this.config.getSnapshot();
+            Cached cached = this.cached;
+            if (cached.snapshot != snapshot) {
+                cached = new Cached(snapshot, this.create(snapshot));
+                this.cached = cached;
+            }
+            return cached.instance;
+        }
+
+        private Object create(ConfigurationSnapshot snapshot) {
+            try {
+                return this.constructor.newInstance(snapshot);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException("Failed creating " + this.constructor.getDeclaringClass().getName(), e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Failed creating " + this.constructor.getDeclaringClass().getName(), e);
+            }
+        }
+
+        private static final class Cached {
+
+            private final ConfigurationSnapshot snapshot;
+            private final Object instance;
+
+            private Cached(ConfigurationSnapshot snapshot, Object instance) {
+                this.snapshot = snapshot;
+                this.instance = instance;
+            }
+        }
+    }
+
+}
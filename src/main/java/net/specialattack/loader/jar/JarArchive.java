@@ -0,0 +1,272 @@
+package net.specialattack.loader.jar;
+
+import net.specialattack.loader.Util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only view of a jar file. The central directory is parsed once and entries are read straight from a
+ * memory-mapped copy of the file using the offsets and sizes it lists, so any entry can be read at any time from any
+ * thread without reopening the file. Closing releases the mapping, reads wait for it and fail afterwards.
+ */
+public final class JarArchive implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034B50;
+    private static final int CENTRAL_HEADER = 0x02014B50;
+    private static final int END_HEADER = 0x06054B50;
+    private static final int END_SIZE = 22;
+    private static final int LOCAL_SIZE = 30;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Map<String, Entry> entries;
+    // Reads hold the read lock, so the mapping is never released while it is used
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+    private MappedByteBuffer buffer;
+
+    private JarArchive(File file, MappedByteBuffer buffer, Map<String, Entry> entries) {
+        this.file = file;
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    public static JarArchive open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Jar is too large to map: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                return new JarArchive(file, mapped, readCentralDirectory(file, mapped));
+            } catch (IOException e) {
+                Util.unmap(mapped);
+                throw e;
+            }
+        } finally {
+            // The mapping stays valid after the channel is closed
+            Util.close(raf);
+        }
+    }
+
+    private static Map<String, Entry> readCentralDirectory(File file, ByteBuffer buffer) throws IOException {
+        int end = -1;
+        int limit = Math.max(0, buffer.limit() - END_SIZE - 0xFFFF);
+        for (int i = buffer.limit() - END_SIZE; i >= limit; i--) {
+            if (buffer.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("Not a jar file: " + file);
+        }
+
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 jars are not supported: " + file);
+        }
+        if (offset > end) {
+            throw new IOException("Corrupt central directory in " + file);
+        }
+
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>(count * 2);
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (position < 0 || position + CENTRAL_SIZE > buffer.limit() || buffer.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("Corrupt central directory in " + file);
+            }
+            int flags = buffer.getShort(position + 8) & 0xFFFF;
+            int method = buffer.getShort(position + 10) & 0xFFFF;
+            int crc = buffer.getInt(position + 16);
+            long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            long localOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+            if (position + CENTRAL_SIZE + nameLength > buffer.limit() || localOffset + LOCAL_SIZE > buffer.limit() || compressedSize > buffer.limit() || size > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt central directory in " + file);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position + CENTRAL_SIZE);
+            slice.get(nameBytes);
+            String name = new String(nameBytes, UTF_8);
+
+            if ((flags & 1) != 0) {
+                throw new IOException("Encrypted entry " + name + " in " + file);
+            }
+            if (method != STORED && method != DEFLATED) {
+                throw new IOException("Unsupported compression method " + method + " for " + name + " in " + file);
+            }
+            if (!name.endsWith("/")) {
+                entries.put(name, new Entry(name, method, crc, (int) compressedSize, (int) size, (int) localOffset));
+            }
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public Collection<Entry> getEntries() {
+        return this.entries.values();
+    }
+
+    public Entry getEntry(String name) {
+        return this.entries.get(name);
+    }
+
+    public byte[] read(String name) throws IOException {
+        Entry entry = this.entries.get(name);
+        return entry == null ? null : this.read(entry);
+    }
+
+    public byte[] read(Entry entry) throws IOException {
+        byte[] result = new byte[entry.size];
+        this.lock.readLock().lock();
+        try {
+            ByteBuffer buffer = this.buffer;
+            if (buffer == null) {
+                throw new IOException("Jar is closed: " + this.file);
+            }
+
+            int local = entry.localOffset;
+            if (buffer.getInt(local) != LOCAL_HEADER) {
+                throw new IOException("Corrupt local header for " + entry.name + " in " + this.file);
+            }
+            int start = local + LOCAL_SIZE + (buffer.getShort(local + 26) & 0xFFFF) + (buffer.getShort(local + 28) & 0xFFFF);
+            if (start + (long) (entry.method == STORED ? entry.size : entry.compressedSize) > buffer.limit()) {
+                throw new IOException("Truncated entry " + entry.name + " in " + this.file);
+            }
+
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(start);
+
+            if (entry.method == STORED) {
+                slice.get(result);
+            } else {
+                // Inflater in nowrap mode wants one extra byte of input
+                byte[] compressed = new byte[entry.compressedSize + 1];
+                slice.get(compressed, 0, entry.compressedSize);
+                this.inflate(entry, compressed, result);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(result);
+        if ((int) crc.getValue() != entry.crc) {
+            throw new IOException("CRC mismatch for " + entry.name + " in " + this.file);
+        }
+        return result;
+    }
+
+    private void inflate(Entry entry, byte[] compressed, byte[] result) throws IOException {
+        Inflater inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < result.length) {
+                int read = inflater.inflate(result, length, result.length - length);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != result.length) {
+                throw new IOException("Truncated entry " + entry.name + " in " + this.file);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry " + entry.name + " in " + this.file, e);
+        } finally {
+            // Only called with the read lock held, so close can't have emptied the queue yet
+            inflater.reset();
+            this.inflaters.offer(inflater);
+        }
+    }
+
+    /**
+     * Releases the mapping of the file and the native memory of the inflaters.
+     */
+    @Override
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            if (this.buffer == null) {
+                return;
+            }
+            Util.unmap(this.buffer);
+            this.buffer = null;
+            Inflater inflater;
+            while ((inflater = this.inflaters.poll()) != null) {
+                inflater.end();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public static final class Entry {
+
+        private final String name;
+        private final int method;
+        private final int crc;
+        private final int compressedSize;
+        private final int size;
+        private final int localOffset;
+
+        private Entry(String name, int method, int crc, int compressedSize, int size, int localOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getSize() {
+            return this.size;
+        }
+
+        public int getCompressedSize() {
+            return this.compressedSize;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+package net.specialattack.loader.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * File handler that only queues records on the logging thread. A single writer thread formats the queued records
+ * and writes them in batches, so logging threads neither contend on the file nor wait for it.
+ */
+public class AsyncFileLogHandler extends Handler {
+
+    private static final int BATCH_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final RotatingLogFile file;
+    private final BlockingQueue<LogRecord> queue;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder;
+    private final Thread writer;
+    private long reported;
+    private volatile boolean closed;
+
+    public AsyncFileLogHandler(String filename, boolean append, int queueSize, OverflowPolicy policy, int sampleRate) throws IOException, SecurityException {
+        this(filename, append, LogRotation.NONE, queueSize, policy, sampleRate);
+    }
+
+    public AsyncFileLogHandler(String filename, boolean append, LogRotation rotation, int queueSize, OverflowPolicy policy, int sampleRate) throws IOException, SecurityException {
+        this.file = new RotatingLogFile(new File(filename), append, rotation);
+        this.queue = new ArrayBlockingQueue<LogRecord>(queueSize);
+        this.policy = policy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.encoder = Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                AsyncFileLogHandler.this.runWriter();
+            }
+        }, "Log writer thread " + filename);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static OverflowPolicy parsePolicy(String policy) {
+        try {
+            return OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown log overflow policy '" + policy + "'");
+        }
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (this.closed || !this.isLoggable(record)) {
+            return;
+        }
+        if (this.queue.offer(record)) {
+            return;
+        }
+
+        switch (this.policy) {
+            case BLOCK:
+                this.put(record);
+                break;
+            case DROP:
+                this.dropped.incrementAndGet();
+                break;
+            case SAMPLE:
+                // Keep every n-th record that did not fit, waiting for room for those
+                if (this.overflowed.incrementAndGet() % this.sampleRate == 0) {
+                    this.put(record);
+                } else {
+                    this.dropped.incrementAndGet();
+                }
+                break;
+        }
+    }
+
+    private void put(LogRecord record) {
+        try {
+            this.queue.put(record);
+        } catch (InterruptedException e) {
+            this.dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Waits until everything logged before this call is written.
+     */
+    @Override
+    public void flush() {
+        if (this.closed) {
+            return;
+        }
+        Marker marker = new Marker(false);
+        try {
+            this.queue.put(marker);
+            marker.done.await(5L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes everything that is queued and closes the file.
+     */
+    @Override
+    public void close() throws SecurityException {
+        if (this.closed) {
+            return;
+        }
+        Marker marker = new Marker(true);
+        try {
+            this.queue.put(marker);
+            this.closed = true;
+            marker.done.await(5L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            this.queue.drainTo(batch, BATCH_SIZE - 1);
+
+            List<Marker> markers = null;
+            for (LogRecord record : batch) {
+                if (record instanceof Marker) {
+                    if (markers == null) {
+                        markers = new ArrayList<Marker>();
+                    }
+                    markers.add((Marker) record);
+                    if (((Marker) record).close) {
+                        running = false;
+                    }
+                    continue;
+                }
+                String line;
+                try {
+                    line = this.getFormatter().format(record);
+                } catch (Exception e) {
+                    this.reportError(null, e, ErrorManager.FORMAT_FAILURE);
+                    continue;
+                }
+                this.writeLine(line);
+            }
+            long dropped = this.dropped.get();
+            if (dropped > this.reported) {
+                this.writeLine("*** Dropped " + (dropped - this.reported) + " log records, the log queue was full ***");
+                this.reported = dropped;
+            }
+            this.drain();
+            batch.clear();
+
+            // Everything before the markers has been written now
+            if (markers != null) {
+                if (!running) {
+                    try {
+                        this.file.getChannel().force(false);
+                    } catch (IOException e) {
+                        this.reportError(null, e, ErrorManager.FLUSH_FAILURE);
+                    }
+                    try {
+                        this.file.close();
+                    } catch (IOException e) {
+                        this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+                    }
+                }
+                for (Marker marker : markers) {
+                    marker.done.countDown();
+                }
+            }
+        }
+
+        // Wake anyone still waiting on a marker queued after closing
+        LogRecord record;
+        while ((record = this.queue.poll()) != null) {
+            if (record instanceof Marker) {
+                ((Marker) record).done.countDown();
+            }
+        }
+    }
+
+    private void writeLine(String line) {
+        String text = line + LoggerOutputStream.LINE_SEPARATOR;
+        if (this.shouldRotate(text)) {
+            // Rotating happens on this thread, loggers keep queueing meanwhile
+            this.drain();
+            try {
+                this.file.rotate();
+            } catch (IOException e) {
+                this.reportError(null, e, ErrorManager.OPEN_FAILURE);
+            }
+        }
+        this.write(text);
+    }
+
+    /**
+     * The limit is in bytes, so checks with the most bytes the text can encode to and only counts them exactly when
+     * that comes close.
+     */
+    private boolean shouldRotate(String text) {
+        if (!this.file.shouldRotate(this.buffer.position(), (long) Math.ceil(text.length() * this.encoder.maxBytesPerChar()))) {
+            return false;
+        }
+        return this.file.shouldRotate(this.buffer.position(), text.getBytes(this.encoder.charset()).length);
+    }
+
+    private void write(String text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        this.encoder.reset();
+        while (true) {
+            CoderResult result = this.encoder.encode(chars, this.buffer, true);
+            if (result.isOverflow()) {
+                this.drain();
+            } else {
+                break;
+            }
+        }
+        while (this.encoder.flush(this.buffer).isOverflow()) {
+            this.drain();
+        }
+    }
+
+    private void drain() {
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.file.written(this.file.getChannel().write(this.buffer));
+            }
+        } catch (IOException e) {
+            this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+        this.buffer.clear();
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Wait for room in the queue.
+         */
+        BLOCK,
+        /**
+         * Drop records that don't fit in the queue.
+         */
+        DROP,
+        /**
+         * Keep one in every few records that don't fit in the queue, waiting for room for those, and drop the rest.
+         */
+        SAMPLE
+    }
+
+    private static class Marker extends LogRecord {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean close;
+        private final transient CountDownLatch done = new CountDownLatch(1);
+
+        private Marker(boolean close) {
+            super(Level.OFF, null);
+            this.close = close;
+        }
+    }
+
+}
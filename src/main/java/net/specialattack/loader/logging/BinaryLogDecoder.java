@@ -0,0 +1,236 @@
+package net.specialattack.loader.logging;
+
+import net.specialattack.loader.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads files written by {@link BinaryLogHandler}. Run it to convert files to the text format of
+ * {@link FileLogFormatter}:
+ * <pre>
+ * java net.specialattack.loader.logging.BinaryLogDecoder [--from time] [--to time] file...
+ * </pre>
+ * Times are either milliseconds since the epoch or {@code yyyy-MM-dd HH:mm:ss}, {@code --to} is exclusive. Compressed
+ * files of rotated logs are read as well.
+ */
+public class BinaryLogDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Level[] STANDARD_LEVELS = { Level.OFF, Level.SEVERE, Level.WARNING, Level.INFO, Level.CONFIG, Level.FINE, Level.FINER, Level.FINEST, Level.ALL };
+    // Every Level created is registered in the known levels of java.util.logging forever, create each one only once
+    private static final ConcurrentMap<String, Level> DECODED_LEVELS = new ConcurrentHashMap<String, Level>();
+
+    private final DataInputStream in;
+    private final List<String> loggers = new ArrayList<String>();
+    private final List<Level> levels = new ArrayList<Level>();
+    private long lastMillis;
+    private boolean started;
+
+    public BinaryLogDecoder(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    public static void main(String[] args) throws IOException {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ((args[i].equals("--from") || args[i].equals("--to")) && i + 1 < args.length) {
+                long time = parseTime(args[i + 1]);
+                if (args[i].equals("--from")) {
+                    from = time;
+                } else {
+                    to = time;
+                }
+                i++;
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: BinaryLogDecoder [--from time] [--to time] file...");
+            System.err.println("Times are milliseconds since the epoch or yyyy-MM-dd HH:mm:ss");
+            System.exit(1);
+        }
+
+        FileLogFormatter formatter = new FileLogFormatter();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+        for (String file : files) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                if (file.endsWith(".gz")) {
+                    in = new GZIPInputStream(in, 64 * 1024);
+                }
+                BinaryLogDecoder decoder = new BinaryLogDecoder(in);
+                LogRecord record;
+                while ((record = decoder.next()) != null) {
+                    if (record.getMillis() >= from && record.getMillis() < to) {
+                        out.write(formatter.format(record));
+                        out.write(LoggerOutputStream.LINE_SEPARATOR);
+                    }
+                }
+            } catch (IOException e) {
+                out.flush();
+                System.err.println("Failed reading " + file + ": " + e.getMessage());
+            } finally {
+                Util.close(in);
+            }
+        }
+        out.flush();
+    }
+
+    private static long parseTime(String time) {
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            try {
+                return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(time).getTime();
+            } catch (ParseException e1) {
+                throw new IllegalArgumentException("Invalid time '" + time + "', expected milliseconds or yyyy-MM-dd HH:mm:ss");
+            }
+        }
+    }
+
+    /**
+     * Returns the next record, or null at the end of the file. The message of the record is the formatted message
+     * as it was logged, stack traces included.
+     */
+    public LogRecord next() throws IOException {
+        while (true) {
+            int tag = this.in.read();
+            if (tag < 0) {
+                return null;
+            }
+            if (!this.started && tag != BinaryLogHandler.TAG_HEADER) {
+                throw new IOException("Not a binary log file");
+            }
+            switch (tag) {
+                case BinaryLogHandler.TAG_HEADER:
+                    if (this.in.readInt() != BinaryLogHandler.MAGIC) {
+                        throw new IOException("Not a binary log file");
+                    }
+                    int version = this.in.readUnsignedByte();
+                    if (version != BinaryLogHandler.VERSION) {
+                        throw new IOException("Unsupported binary log version " + version);
+                    }
+                    this.loggers.clear();
+                    this.levels.clear();
+                    this.lastMillis = 0L;
+                    this.started = true;
+                    break;
+                case BinaryLogHandler.TAG_LOGGER:
+                    this.define(this.loggers, this.readId(), this.readString());
+                    break;
+                case BinaryLogHandler.TAG_LEVEL:
+                    int id = this.readId();
+                    int value = (int) unzigzag(this.readVarint());
+                    this.define(this.levels, id, getLevel(this.readString(), value));
+                    break;
+                case BinaryLogHandler.TAG_RECORD:
+                    this.lastMillis += unzigzag(this.readVarint());
+                    String logger = this.lookup(this.loggers, this.readId());
+                    Level level = this.lookup(this.levels, this.readId());
+                    LogRecord record = new LogRecord(level, this.readString());
+                    record.setMillis(this.lastMillis);
+                    record.setLoggerName(logger);
+                    return record;
+                default:
+                    throw new IOException("Corrupt binary log, unknown entry " + tag);
+            }
+        }
+    }
+
+    private <T> void define(List<T> table, int id, T value) throws IOException {
+        if (id != table.size()) {
+            throw new IOException("Corrupt binary log, unexpected id " + id);
+        }
+        table.add(value);
+    }
+
+    private <T> T lookup(List<T> table, int id) throws IOException {
+        if (id >= table.size()) {
+            throw new IOException("Corrupt binary log, undefined id " + id);
+        }
+        return table.get(id);
+    }
+
+    private int readId() throws IOException {
+        long id = this.readVarint();
+        if (id > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt binary log, invalid id " + id);
+        }
+        return (int) id;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[this.readId()];
+        this.in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = this.in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated binary log");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt binary log, varint too long");
+    }
+
+    private static Level getLevel(String name, int value) {
+        for (Level level : STANDARD_LEVELS) {
+            if (level.getName().equals(name) && level.intValue() == value) {
+                return level;
+            }
+        }
+        String key = name + ':' + value;
+        Level level = DECODED_LEVELS.get(key);
+        if (level == null) {
+            level = new DecodedLevel(name, value);
+            Level previous = DECODED_LEVELS.putIfAbsent(key, level);
+            if (previous != null) {
+                level = previous;
+            }
+        }
+        return level;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    private static class DecodedLevel extends Level {
+
+        private static final long serialVersionUID = 1L;
+
+        private DecodedLevel(String name, int value) {
+            super(name, value);
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+package net.specialattack.loader.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Writes records in a compact binary format instead of text, read them back with {@link BinaryLogDecoder}.
+ * <p/>
+ * A file is a sequence of entries, each starting with a tag byte. A header entry starts every file, and is written
+ * again whenever the file is reopened; it resets the logger and level tables and the timestamp base. Logger names and
+ * levels are defined once and referred to by id afterwards. Records hold the timestamp as a delta to the previous
+ * record, the ids, and the message including any stack trace. Numbers are varints, strings a varint length followed
+ * by UTF-8.
+ * <pre>
+ * header: 0x00 magic(int) version(byte)
+ * logger: 0x01 id name
+ * level:  0x02 id zigzag(value) name
+ * record: 0x03 zigzag(millis delta) logger-id level-id message
+ * </pre>
+ * Entries are collected in a buffer that is written when full, when flushing, and at least once a second.
+ */
+public class BinaryLogHandler extends Handler {
+
+    static final int MAGIC = 0x524C4F47;
+    static final int VERSION = 1;
+    static final int TAG_HEADER = 0x00;
+    static final int TAG_LOGGER = 0x01;
+    static final int TAG_LEVEL = 0x02;
+    static final int TAG_RECORD = 0x03;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_NAMES = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RotatingLogFile file;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer message = ByteBuffer.allocate(1024);
+    private final Map<String, Integer> loggers = new HashMap<String, Integer>();
+    private final Map<Level, Integer> levels = new IdentityHashMap<Level, Integer>();
+    private final ScheduledExecutorService flusher;
+    private long lastMillis;
+    private boolean closed;
+
+    public BinaryLogHandler(String filename, boolean append) throws IOException, SecurityException {
+        this(filename, append, LogRotation.NONE);
+    }
+
+    public BinaryLogHandler(final String filename, boolean append, LogRotation rotation) throws IOException, SecurityException {
+        this.file = new RotatingLogFile(new File(filename), append, rotation);
+        this.writeHeader();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Log flush thread " + filename);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                BinaryLogHandler.this.flush();
+            }
+        }, 1L, 1L, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!this.isLoggable(record)) {
+            return;
+        }
+        StringBuilder builder = LogFormat.take();
+        String text;
+        try {
+            LogFormat.appendMessage(builder, record);
+            text = builder.toString();
+        } catch (Exception e) {
+            this.reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        } finally {
+            LogFormat.release(builder);
+        }
+
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.encode(text);
+            if (this.file.shouldRotate(this.buffer.position(), this.message.remaining() + 32)) {
+                this.drain();
+                try {
+                    this.file.rotate();
+                } catch (IOException e) {
+                    this.reportError(null, e, ErrorManager.OPEN_FAILURE);
+                }
+                this.writeHeader();
+            }
+            if (this.loggers.size() >= MAX_NAMES) {
+                // Start over instead of keeping every logger name ever seen
+                this.writeHeader();
+            }
+
+            String name = record.getLoggerName() == null ? "null" : record.getLoggerName();
+            Integer logger = this.loggers.get(name);
+            if (logger == null) {
+                logger = this.loggers.size();
+                this.loggers.put(name, logger);
+                byte[] bytes = name.getBytes(UTF_8);
+                this.ensure(1 + 5 + 5 + bytes.length);
+                this.buffer.put((byte) TAG_LOGGER);
+                this.putVarint(logger);
+                this.putBytes(bytes);
+            }
+            Integer level = this.levels.get(record.getLevel());
+            if (level == null) {
+                level = this.levels.size();
+                this.levels.put(record.getLevel(), level);
+                byte[] bytes = record.getLevel().getName().getBytes(UTF_8);
+                this.ensure(1 + 5 + 5 + 5 + bytes.length);
+                this.buffer.put((byte) TAG_LEVEL);
+                this.putVarint(level);
+                this.putVarint(zigzag(record.getLevel().intValue()));
+                this.putBytes(bytes);
+            }
+
+            this.ensure(1 + 10 + 5 + 5 + 5);
+            this.buffer.put((byte) TAG_RECORD);
+            this.putVarint(zigzag(record.getMillis() - this.lastMillis));
+            this.lastMillis = record.getMillis();
+            this.putVarint(logger);
+            this.putVarint(level);
+            this.putVarint(this.message.remaining());
+            this.putMessage();
+        }
+    }
+
+    /**
+     * Writes the buffered entries to the file.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!this.closed) {
+            this.drain();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws SecurityException {
+        if (this.closed) {
+            return;
+        }
+        this.drain();
+        this.closed = true;
+        this.flusher.shutdown();
+        try {
+            this.file.close();
+        } catch (IOException e) {
+            this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    private void writeHeader() {
+        this.loggers.clear();
+        this.levels.clear();
+        this.lastMillis = 0L;
+        this.ensure(6);
+        this.buffer.put((byte) TAG_HEADER);
+        this.buffer.putInt(MAGIC);
+        this.buffer.put((byte) VERSION);
+    }
+
+    /**
+     * Encodes the text into the message buffer, growing it when needed.
+     */
+    private void encode(String text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        this.encoder.reset();
+        this.message.clear();
+        while (true) {
+            CoderResult result = this.encoder.encode(chars, this.message, true);
+            if (result.isUnderflow()) {
+                result = this.encoder.flush(this.message);
+            }
+            if (!result.isOverflow()) {
+                break;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(this.message.capacity() * 2);
+            this.message.flip();
+            larger.put(this.message);
+            this.message = larger;
+        }
+        this.message.flip();
+    }
+
+    private void putMessage() {
+        if (this.message.remaining() <= this.buffer.remaining()) {
+            this.buffer.put(this.message);
+        } else {
+            this.drain();
+            if (this.message.remaining() <= this.buffer.remaining()) {
+                this.buffer.put(this.message);
+            } else {
+                this.write(this.message);
+            }
+        }
+        if (this.message.capacity() > BUFFER_SIZE) {
+            // Don't hold on to the buffer of a huge stack trace
+            this.message = ByteBuffer.allocate(1024);
+        }
+    }
+
+    private void putBytes(byte[] bytes) {
+        this.putVarint(bytes.length);
+        this.buffer.put(bytes);
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0L) {
+            this.buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.buffer.put((byte) value);
+    }
+
+    private void ensure(int length) {
+        if (this.buffer.remaining() < length) {
+            this.drain();
+        }
+    }
+
+    private void drain() {
+        this.buffer.flip();
+        this.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void write(ByteBuffer data) {
+        try {
+            while (data.hasRemaining()) {
+                this.file.written(this.file.getChannel().write(data));
+            }
+        } catch (IOException e) {
+            this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+            data.position(data.limit());
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+}
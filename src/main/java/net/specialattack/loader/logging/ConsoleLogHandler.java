@@ -14,6 +14,9 @@ public class ConsoleLogHandler extends ConsoleHandler {
 
     @Override
     public void publish(LogRecord record) {
+        if (!this.isLoggable(record)) {
+            return;
+        }
         this.stream.println(this.getFormatter().format(record));
     }
 
@@ -1,42 +1,30 @@
 package net.specialattack.loader.logging;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
 public class FileLogFormatter extends Formatter {
 
-    private SimpleDateFormat dateFormat;
+    private final LogFormat.Timestamps timestamps;
 
     public FileLogFormatter() {
-        this.dateFormat = new SimpleDateFormat("dd/WW/yyyy HH:mm:ss");
+        this.timestamps = new LogFormat.Timestamps("dd/WW/yyyy HH:mm:ss");
     }
 
     @Override
     public String format(LogRecord record) {
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("[").append(this.dateFormat.format(new Date(record.getMillis()))).append("] ");
-        builder.append("[").append(record.getLoggerName()).append("] ");
-        builder.append("[").append(record.getLevel().getName()).append("] ");
-        if (record.getParameters() != null) {
-            builder.append(String.format(record.getMessage(), record.getParameters()));
-        } else {
-            builder.append(record.getMessage());
-        }
-        if (record.getThrown() != null) {
+        StringBuilder builder = LogFormat.take();
+        try {
+            builder.append('[').append(this.timestamps.format(record.getMillis())).append("] ");
+            builder.append('[').append(record.getLoggerName()).append("] ");
+            builder.append('[').append(record.getLevel().getName()).append("] ");
+            LogFormat.appendMessage(builder, record);
             builder.append(LoggerOutputStream.LINE_SEPARATOR);
 
-            StringWriter sw = new StringWriter();
-            record.getThrown().printStackTrace(new PrintWriter(sw));
-            builder.append(sw.toString());
+            return LogFormat.finish(builder);
+        } finally {
+            LogFormat.release(builder);
         }
-        builder.append(LoggerOutputStream.LINE_SEPARATOR);
-
-        return builder.toString().trim();
     }
 
 }
@@ -1,38 +1,65 @@
 package net.specialattack.loader.logging;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.logging.ErrorManager;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 
 public class FileLogHandler extends Handler {
 
-    private PrintStream out;
+    private final RotatingLogFile file;
+    private final Charset charset = Charset.defaultCharset();
 
     public FileLogHandler(String filename, boolean append) throws IOException, SecurityException {
-        this.out = new PrintStream(new FileOutputStream(new File(filename), append));
+        this(filename, append, LogRotation.NONE);
+    }
+
+    public FileLogHandler(String filename, boolean append, LogRotation rotation) throws IOException, SecurityException {
+        this.file = new RotatingLogFile(new File(filename), append, rotation);
     }
 
     @Override
     public void publish(LogRecord record) {
-        synchronized (this.out) {
-            this.out.println(this.getFormatter().format(record));
+        byte[] line = (this.getFormatter().format(record) + LoggerOutputStream.LINE_SEPARATOR).getBytes(this.charset);
+        synchronized (this.file) {
+            try {
+                if (this.file.shouldRotate(0L, line.length)) {
+                    // Only renames and reopens, compressing happens in the background
+                    this.file.rotate();
+                }
+            } catch (IOException e) {
+                this.reportError(null, e, ErrorManager.OPEN_FAILURE);
+            }
+            try {
+                this.file.getStream().write(line);
+                this.file.written(line.length);
+            } catch (IOException e) {
+                this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
         }
     }
 
     @Override
     public void flush() {
-        synchronized (this.out) {
-            this.out.flush();
+        synchronized (this.file) {
+            try {
+                this.file.getStream().flush();
+            } catch (IOException e) {
+                this.reportError(null, e, ErrorManager.FLUSH_FAILURE);
+            }
         }
     }
 
     @Override
     public void close() throws SecurityException {
-        synchronized (this.out) {
-            this.out.close();
+        synchronized (this.file) {
+            try {
+                this.file.close();
+            } catch (IOException e) {
+                this.reportError(null, e, ErrorManager.CLOSE_FAILURE);
+            }
         }
     }
 
@@ -0,0 +1,160 @@
+package net.specialattack.loader.logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.LogRecord;
+
+/**
+ * Shared pieces of the log formatters. Formatting only allocates the resulting string on the common path: the
+ * builder is reused per thread, timestamps are formatted once per second and padded names are remembered.
+ */
+final class LogFormat {
+
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+    private static final int MAX_PADDED_NAMES = 1024;
+
+    private static final ThreadLocal<StringBuilder[]> BUILDER = new ThreadLocal<StringBuilder[]>() {
+
+        @Override
+        protected StringBuilder[] initialValue() {
+            return new StringBuilder[] { new StringBuilder(256) };
+        }
+    };
+
+    private LogFormat() {
+    }
+
+    /**
+     * Takes the builder of this thread, or a new one when it is already taken by a format call further up the stack,
+     * for instance when formatting a parameter logs something itself.
+     */
+    static StringBuilder take() {
+        StringBuilder[] holder = BUILDER.get();
+        StringBuilder builder = holder[0];
+        if (builder == null) {
+            return new StringBuilder(256);
+        }
+        holder[0] = null;
+        builder.setLength(0);
+        return builder;
+    }
+
+    static void release(StringBuilder builder) {
+        // Don't hold on to the buffer of a huge stack trace
+        if (builder.capacity() <= MAX_RETAINED_CAPACITY) {
+            BUILDER.get()[0] = builder;
+        }
+    }
+
+    static void appendMessage(StringBuilder builder, LogRecord record) {
+        if (record.getParameters() != null) {
+            builder.append(String.format(record.getMessage(), record.getParameters()));
+        } else {
+            builder.append(record.getMessage());
+        }
+        if (record.getThrown() != null) {
+            builder.append(LoggerOutputStream.LINE_SEPARATOR);
+
+            StringWriter sw = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(sw));
+            builder.append(sw.toString());
+        }
+    }
+
+    /**
+     * Same as {@code builder.toString().trim()}, without the intermediate string.
+     */
+    static String finish(StringBuilder builder) {
+        int start = 0;
+        int end = builder.length();
+        while (start < end && builder.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && builder.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return builder.substring(start, end);
+    }
+
+    /**
+     * Formats timestamps with second precision, formatting each second only once.
+     */
+    static final class Timestamps {
+
+        private final SimpleDateFormat format;
+        private volatile Cached cached = new Cached(Long.MIN_VALUE, null);
+
+        Timestamps(String pattern) {
+            this.format = new SimpleDateFormat(pattern);
+        }
+
+        String format(long millis) {
+            long second = millis >= 0L ? millis / 1000L : (millis - 999L) / 1000L;
+            Cached cached = this.cached;
+            if (cached.second != second) {
+                String text;
+                synchronized (this.format) {
+                    text = this.format.format(new Date(second * 1000L));
+                }
+                cached = new Cached(second, text);
+                this.cached = cached;
+            }
+            return cached.text;
+        }
+
+        private static final class Cached {
+
+            private final long second;
+            private final String text;
+
+            private Cached(long second, String text) {
+                this.second = second;
+                this.text = text;
+            }
+        }
+    }
+
+    /**
+     * Pads or cuts names to a fixed length, remembering the result for the names seen most.
+     */
+    static final class PaddedNames {
+
+        private final int length;
+        private final Map<String, String> names = new ConcurrentHashMap<String, String>();
+
+        PaddedNames(int length) {
+            this.length = length;
+        }
+
+        String get(String name) {
+            if (name == null) {
+                return this.pad("null");
+            }
+            String padded = this.names.get(name);
+            if (padded == null) {
+                padded = this.pad(name);
+                if (this.names.size() < MAX_PADDED_NAMES) {
+                    this.names.put(name, padded);
+                }
+            }
+            return padded;
+        }
+
+        private String pad(String name) {
+            if (name.length() > this.length) {
+                return name.substring(0, this.length - 1) + ".";
+            }
+            StringBuilder result = new StringBuilder(this.length);
+            result.append(name);
+            while (result.length() < this.length) {
+                result.append(' ');
+            }
+            return result.toString();
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package net.specialattack.loader.logging;
+
+/**
+ * When a log file is rotated and how many rotated files are kept.
+ */
+public class LogRotation {
+
+    public static final LogRotation NONE = new LogRotation(0L, false, 0, false);
+
+    /**
+     * Size in bytes a file is rotated at, or 0 to not rotate on size.
+     */
+    public final long maxSize;
+    /**
+     * Whether to rotate at midnight.
+     */
+    public final boolean daily;
+    /**
+     * Number of rotated files to keep, or 0 to keep all of them.
+     */
+    public final int maxFiles;
+    /**
+     * Whether rotated files are gzip compressed.
+     */
+    public final boolean compress;
+
+    public LogRotation(long maxSize, boolean daily, int maxFiles, boolean compress) {
+        this.maxSize = Math.max(0L, maxSize);
+        this.daily = daily;
+        this.maxFiles = Math.max(0, maxFiles);
+        this.compress = compress;
+    }
+
+    public boolean isEnabled() {
+        return this.maxSize > 0L || this.daily;
+    }
+
+}
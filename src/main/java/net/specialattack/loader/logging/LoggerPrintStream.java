@@ -0,0 +1,298 @@
+package net.specialattack.loader.logging;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Print stream that logs every line printed to it. Each thread collects its own partial line, so threads printing
+ * at the same time neither wait on each other nor end up in each others lines. Every method of {@link PrintStream}
+ * is overridden, none of them lock the stream.
+ */
+public class LoggerPrintStream extends PrintStream {
+
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private final Logger log;
+    private final Level logLevel;
+    private final Charset charset = Charset.defaultCharset();
+    private final ThreadLocal<LineBuffer> buffers = new ThreadLocal<LineBuffer>() {
+
+        @Override
+        protected LineBuffer initialValue() {
+            return new LineBuffer();
+        }
+    };
+
+    public LoggerPrintStream(Logger log, Level logLevel) {
+        super(new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                // Never used, every method writing to it is overridden
+            }
+        });
+        this.log = log;
+        this.logLevel = logLevel;
+    }
+
+    @Override
+    public void write(int b) {
+        LineBuffer buffer = this.buffers.get();
+        buffer.single[0] = (byte) b;
+        buffer.write(buffer.single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        this.buffers.get().write(buf, off, len);
+    }
+
+    @Override
+    public void print(boolean b) {
+        this.print(String.valueOf(b));
+    }
+
+    @Override
+    public void print(char c) {
+        this.buffers.get().append(c);
+    }
+
+    @Override
+    public void print(int i) {
+        this.buffers.get().line.append(i);
+    }
+
+    @Override
+    public void print(long l) {
+        this.buffers.get().line.append(l);
+    }
+
+    @Override
+    public void print(float f) {
+        this.buffers.get().line.append(f);
+    }
+
+    @Override
+    public void print(double d) {
+        this.buffers.get().line.append(d);
+    }
+
+    @Override
+    public void print(char[] s) {
+        this.buffers.get().append(CharBuffer.wrap(s));
+    }
+
+    @Override
+    public void print(String s) {
+        this.buffers.get().append(s != null ? s : "null");
+    }
+
+    @Override
+    public void print(Object obj) {
+        this.print(String.valueOf(obj));
+    }
+
+    @Override
+    public void println() {
+        this.buffers.get().emit();
+    }
+
+    @Override
+    public void println(boolean x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(char x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(int x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(long x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(float x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(double x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(char[] x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(String x) {
+        this.print(x);
+        this.println();
+    }
+
+    @Override
+    public void println(Object x) {
+        this.print(String.valueOf(x));
+        this.println();
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        return this.format(format, args);
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+        return this.format(l, format, args);
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        this.print(String.format(format, args));
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+        this.print(String.format(l, format, args));
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+        this.buffers.get().append(csq != null ? csq : "null");
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+        this.buffers.get().append((csq != null ? csq : "null").subSequence(start, end));
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+        this.print(c);
+        return this;
+    }
+
+    /**
+     * Logs the partial line of the calling thread.
+     */
+    @Override
+    public void flush() {
+        this.buffers.get().emit();
+    }
+
+    @Override
+    public void close() {
+        this.flush();
+    }
+
+    @Override
+    public boolean checkError() {
+        return false;
+    }
+
+    private final class LineBuffer {
+
+        private StringBuilder line = new StringBuilder(128);
+        private final byte[] single = new byte[1];
+        private final CharsetDecoder decoder = LoggerPrintStream.this.charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(256);
+        private byte[] leftover;
+
+        private void append(char c) {
+            if (c == '\n') {
+                this.emit();
+            } else {
+                this.line.append(c);
+            }
+        }
+
+        private void append(CharSequence text) {
+            int length = text.length();
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (text.charAt(i) == '\n') {
+                    this.line.append(text, start, i);
+                    this.emit();
+                    start = i + 1;
+                }
+            }
+            if (start < length) {
+                this.line.append(text, start, length);
+            }
+        }
+
+        private void write(byte[] buf, int off, int len) {
+            ByteBuffer in;
+            if (this.leftover != null) {
+                // The end of a character that was split over two writes
+                byte[] joined = new byte[this.leftover.length + len];
+                System.arraycopy(this.leftover, 0, joined, 0, this.leftover.length);
+                System.arraycopy(buf, off, joined, this.leftover.length, len);
+                in = ByteBuffer.wrap(joined);
+                this.leftover = null;
+            } else {
+                in = ByteBuffer.wrap(buf, off, len);
+            }
+
+            while (true) {
+                CoderResult result = this.decoder.decode(in, this.chars, false);
+                this.chars.flip();
+                this.append(this.chars);
+                this.chars.clear();
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+            if (in.hasRemaining()) {
+                this.leftover = new byte[in.remaining()];
+                in.get(this.leftover);
+            }
+        }
+
+        private void emit() {
+            int length = this.line.length();
+            if (length > 0 && this.line.charAt(length - 1) == '\r') {
+                length--;
+            }
+            String text = length > 0 ? this.line.substring(0, length) : null;
+            if (this.line.capacity() > MAX_RETAINED_CAPACITY) {
+                this.line = new StringBuilder(128);
+            } else {
+                this.line.setLength(0);
+            }
+            // Reset first, a handler printing to this stream starts a new line
+            if (text != null) {
+                LoggerPrintStream.this.log.log(LoggerPrintStream.this.logLevel, text);
+            }
+        }
+    }
+
+}
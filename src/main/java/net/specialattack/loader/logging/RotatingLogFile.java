@@ -0,0 +1,262 @@
+package net.specialattack.loader.logging;
+
+import net.specialattack.loader.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An open log file that is moved aside when its {@link LogRotation} says so. Rotating only renames the file and opens
+ * a new one, compressing and removing old files happens on a background thread.
+ * <p/>
+ * Not thread-safe, the handler owning it serializes the writes.
+ */
+public class RotatingLogFile {
+
+    private static final String COMPRESSED = ".gz";
+    private static final String TEMPORARY = ".tmp";
+
+    private static final ExecutorService COMPRESSOR = new ThreadPoolExecutor(0, 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            // Not a daemon, so a file being compressed on shutdown is finished
+            return new Thread(runnable, "Log compression thread");
+        }
+    });
+
+    private final File file;
+    private final LogRotation rotation;
+    private final Pattern rotatedName;
+    private FileOutputStream stream;
+    private long size;
+    private long nextRollover;
+
+    public RotatingLogFile(File file, boolean append, LogRotation rotation) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.rotation = rotation;
+        // Only what moveAside produces, other files next to the log are left alone
+        this.rotatedName = Pattern.compile(Pattern.quote(this.file.getName()) + "\\.\\d{4}-\\d{2}-\\d{2}-\\d{6}(-\\d+)?(\\.gz(\\.tmp)?)?");
+        if (rotation.isEnabled() && rotation.compress) {
+            this.compressLeftovers();
+        }
+        if (append && rotation.daily && this.file.length() > 0L && this.file.lastModified() < startOfDay(System.currentTimeMillis())) {
+            // Left over from an earlier day
+            this.moveAside();
+        }
+        this.open(append);
+    }
+
+    public OutputStream getStream() {
+        return this.stream;
+    }
+
+    public FileChannel getChannel() {
+        return this.stream.getChannel();
+    }
+
+    /**
+     * Counts bytes written to the file towards the size limit.
+     */
+    public void written(long bytes) {
+        this.size += bytes;
+    }
+
+    /**
+     * Returns whether the file should be rotated before writing the next record. Buffered bytes are written to the file
+     * but not counted yet, a file that is still empty is not rotated for size.
+     */
+    public boolean shouldRotate(long buffered, long next) {
+        long size = this.size + buffered;
+        if (this.rotation.maxSize > 0L && size > 0L && size + next > this.rotation.maxSize) {
+            return true;
+        }
+        return this.rotation.daily && System.currentTimeMillis() >= this.nextRollover;
+    }
+
+    /**
+     * Closes the file, moves it aside and opens a new one in its place. When moving fails the old file is reopened and
+     * not rotated again until the next limit is reached.
+     */
+    public void rotate() throws IOException {
+        this.stream.close();
+        IOException failure = null;
+        try {
+            this.moveAside();
+        } catch (IOException e) {
+            failure = e;
+        }
+        this.open(failure != null);
+        if (failure != null) {
+            // Count from here, so the next attempt is another full size limit away and not on the next record
+            this.size = 0L;
+            throw failure;
+        }
+    }
+
+    public void close() throws IOException {
+        this.stream.close();
+    }
+
+    private void open(boolean append) throws IOException {
+        this.stream = new FileOutputStream(this.file, append);
+        this.size = append ? this.file.length() : 0L;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(startOfDay(System.currentTimeMillis()));
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        this.nextRollover = calendar.getTimeInMillis();
+    }
+
+    private void moveAside() throws IOException {
+        String base = this.file.getName() + "." + new SimpleDateFormat("yyyy-MM-dd-HHmmss").format(new Date());
+        File target = new File(this.file.getParentFile(), base);
+        for (int i = 1; target.exists() || new File(target.getPath() + COMPRESSED).exists(); i++) {
+            target = new File(this.file.getParentFile(), base + "-" + i);
+        }
+        if (!this.file.renameTo(target)) {
+            throw new IOException("Failed moving " + this.file + " to " + target);
+        }
+
+        final File rotated = target;
+        COMPRESSOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (RotatingLogFile.this.rotation.compress) {
+                    compress(rotated);
+                }
+                RotatingLogFile.this.prune();
+            }
+        });
+    }
+
+    /**
+     * Queues rotated files that were not compressed yet, for example because the process stopped while compressing.
+     */
+    private void compressLeftovers() {
+        for (File file : this.listRotated()) {
+            if (file.getName().endsWith(TEMPORARY)) {
+                file.delete();
+            }
+        }
+        for (final File file : this.listRotated()) {
+            if (!file.getName().endsWith(COMPRESSED)) {
+                COMPRESSOR.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        compress(file);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest rotated files beyond the number to keep.
+     */
+    private void prune() {
+        if (this.rotation.maxFiles <= 0) {
+            return;
+        }
+        List<File> files = new ArrayList<File>();
+        for (File file : this.listRotated()) {
+            if (!file.getName().endsWith(TEMPORARY)) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference != 0L ? (difference < 0L ? -1 : 1) : first.getName().compareTo(second.getName());
+            }
+        });
+        for (int i = 0; i < files.size() - this.rotation.maxFiles; i++) {
+            if (!files.get(i).delete()) {
+                System.err.println("Failed deleting old log file " + files.get(i));
+            }
+        }
+    }
+
+    private List<File> listRotated() {
+        File[] files = this.file.getParentFile().listFiles();
+        List<File> result = new ArrayList<File>();
+        if (files != null) {
+            for (File file : Arrays.asList(files)) {
+                if (file.isFile() && this.rotatedName.matcher(file.getName()).matches()) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void compress(File file) {
+        File temp = new File(file.getPath() + COMPRESSED + TEMPORARY);
+        File target = new File(file.getPath() + COMPRESSED);
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(file);
+            out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            in.close();
+            in = null;
+
+            if (!temp.renameTo(target)) {
+                throw new IOException("Failed moving " + temp + " to " + target);
+            }
+            // Keep the age of the contents, old files are pruned by it
+            target.setLastModified(file.lastModified());
+            if (!file.delete()) {
+                System.err.println("Failed deleting " + file + " after compressing it");
+            }
+        } catch (IOException e) {
+            System.err.println("Failed compressing log file " + file);
+            e.printStackTrace();
+            temp.delete();
+        } finally {
+            Util.close(in);
+            Util.close(out);
+        }
+    }
+
+    private static long startOfDay(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+}
@@ -0,0 +1,201 @@
+package net.specialattack.loader.management;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import net.specialattack.loader.Util;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects where boot time goes. Phases are the steps of the boot itself, activities are the pieces of class loader
+ * work done within them, which may overlap when jars are scanned or services are started in parallel.
+ */
+public class BootProfile implements BootProfileMXBean {
+
+    public static final String OBJECT_NAME = "net.specialattack.loader:type=BootProfile";
+
+    public static final String READ = "read";
+    public static final String INSPECT = "inspect";
+    public static final String TRANSFORM = "transform";
+    public static final String CACHE_RESTORE = "cache-restore";
+    public static final String DEFINE = "define";
+    public static final String WRAPPER_GENERATION = "wrapper-generation";
+    public static final String LAZY_ACTIVATION = "lazy-activation";
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private volatile long bootTime;
+    private final Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+    private final Map<String, AtomicLong> activityTimes = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, AtomicLong> activityCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, Long> jarScanTimes = new LinkedHashMap<String, Long>();
+    private final Map<String, Long> serviceStartTimes = new LinkedHashMap<String, Long>();
+
+    public void recordPhase(String phase, long nanos) {
+        synchronized (this.phaseTimes) {
+            Long previous = this.phaseTimes.get(phase);
+            this.phaseTimes.put(phase, previous == null ? nanos : previous + nanos);
+        }
+    }
+
+    public void recordActivity(String activity, long nanos) {
+        get(this.activityTimes, activity).addAndGet(nanos);
+        get(this.activityCounts, activity).incrementAndGet();
+    }
+
+    public void recordJarScan(String jar, long nanos) {
+        synchronized (this.jarScanTimes) {
+            this.jarScanTimes.put(jar, nanos);
+        }
+    }
+
+    public void recordServiceStart(String service, long nanos) {
+        synchronized (this.serviceStartTimes) {
+            this.serviceStartTimes.put(service, nanos);
+        }
+    }
+
+    /**
+     * Marks the boot as complete.
+     */
+    public void finish() {
+        this.bootTime = System.nanoTime() - this.startNanos;
+    }
+
+    private static AtomicLong get(Map<String, AtomicLong> map, String key) {
+        AtomicLong value = map.get(key);
+        if (value == null) {
+            synchronized (map) {
+                value = map.get(key);
+                if (value == null) {
+                    value = new AtomicLong();
+                    map.put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> map) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private static Map<String, Long> copy(Map<String, Long> map) {
+        synchronized (map) {
+            return new LinkedHashMap<String, Long>(map);
+        }
+    }
+
+    @Override
+    public long getBootTime() {
+        return this.bootTime;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTimes() {
+        return copy(this.phaseTimes);
+    }
+
+    @Override
+    public Map<String, Long> getActivityTimes() {
+        return snapshot(this.activityTimes);
+    }
+
+    @Override
+    public Map<String, Long> getActivityCounts() {
+        return snapshot(this.activityCounts);
+    }
+
+    @Override
+    public Map<String, Long> getJarScanTimes() {
+        return copy(this.jarScanTimes);
+    }
+
+    @Override
+    public Map<String, Long> getServiceStartTimes() {
+        return copy(this.serviceStartTimes);
+    }
+
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Failed registering boot profile MBean");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the profile as JSON, with all times in milliseconds.
+     */
+    public void writeReport(File file) {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("started", this.startMillis);
+        report.put("bootTime", toMillis(this.bootTime));
+        report.put("phases", toMillis(this.getPhaseTimes()));
+        Map<String, Object> activities = new TreeMap<String, Object>();
+        Map<String, Long> counts = this.getActivityCounts();
+        for (Map.Entry<String, Long> entry : this.getActivityTimes().entrySet()) {
+            Map<String, Object> activity = new LinkedHashMap<String, Object>();
+            activity.put("time", toMillis(entry.getValue()));
+            activity.put("count", counts.get(entry.getKey()));
+            activities.put(entry.getKey(), activity);
+        }
+        report.put("activities", activities);
+        report.put("jars", toMillis(this.getJarScanTimes()));
+        report.put("services", toMillis(this.getServiceStartTimes()));
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            System.err.println("Failed creating folder for boot report " + file);
+            return;
+        }
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            gson.toJson(report, out);
+        } catch (IOException e) {
+            System.err.println("Failed writing boot report " + file);
+            e.printStackTrace();
+        } finally {
+            Util.close(out);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0D) / 1000.0D;
+    }
+
+    private static Map<String, Double> toMillis(Map<String, Long> map) {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            result.put(entry.getKey(), toMillis(entry.getValue()));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,40 @@
+package net.specialattack.loader.management;
+
+import java.util.Map;
+
+/**
+ * Boot timings, all in nanoseconds.
+ */
+public interface BootProfileMXBean {
+
+    /**
+     * Wall clock time from the start of setup until every eager service was started, or 0 while booting.
+     */
+    long getBootTime();
+
+    /**
+     * Wall clock time of each step of the boot, in order.
+     */
+    Map<String, Long> getPhaseTimes();
+
+    /**
+     * Time spent on each kind of class loader work, summed over all loaders and threads.
+     */
+    Map<String, Long> getActivityTimes();
+
+    /**
+     * How often each kind of class loader work was done.
+     */
+    Map<String, Long> getActivityCounts();
+
+    /**
+     * Wall clock time of scanning each service jar.
+     */
+    Map<String, Long> getJarScanTimes();
+
+    /**
+     * Time each service took to start.
+     */
+    Map<String, Long> getServiceStartTimes();
+
+}
@@ -0,0 +1,125 @@
+package net.specialattack.loader.management;
+
+import net.specialattack.loader.BootClassLoader;
+import net.specialattack.loader.cache.ClassBytesCache;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counters of a single {@link BootClassLoader}.
+ */
+public class ClassLoaderMetrics implements ClassLoaderMetricsMXBean {
+
+    public static final String OBJECT_NAME = "net.specialattack.loader:type=ClassLoader,name=";
+
+    public final StripedCounter findClassCalls = new StripedCounter();
+    public final StripedCounter classCacheHits = new StripedCounter();
+    public final StripedCounter negativeHits = new StripedCounter();
+    public final StripedCounter parentDelegations = new StripedCounter();
+    public final StripedCounter bytesRead = new StripedCounter();
+    public final StripedCounter bytesDefined = new StripedCounter();
+    public final StripedCounter classesDefined = new StripedCounter();
+    private final Map<String, TimingHistogram> transformers = new ConcurrentHashMap<String, TimingHistogram>();
+    private final BootClassLoader loader;
+
+    public ClassLoaderMetrics(BootClassLoader loader) {
+        this.loader = loader;
+    }
+
+    public TimingHistogram getTransformerHistogram(String transformer) {
+        synchronized (this.transformers) {
+            TimingHistogram histogram = this.transformers.get(transformer);
+            if (histogram == null) {
+                histogram = new TimingHistogram();
+                this.transformers.put(transformer, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    @Override
+    public long getFindClassCalls() {
+        return this.findClassCalls.sum();
+    }
+
+    @Override
+    public long getClassCacheHits() {
+        return this.classCacheHits.sum();
+    }
+
+    @Override
+    public long getClassBytesCacheHits() {
+        ClassBytesCache cache = this.loader.getClassBytesCache();
+        return cache != null ? cache.getHits() : 0L;
+    }
+
+    @Override
+    public long getClassBytesCacheMisses() {
+        ClassBytesCache cache = this.loader.getClassBytesCache();
+        return cache != null ? cache.getMisses() : 0L;
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return this.negativeHits.sum();
+    }
+
+    @Override
+    public long getParentDelegations() {
+        return this.parentDelegations.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return this.bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesDefined() {
+        return this.bytesDefined.sum();
+    }
+
+    @Override
+    public long getClassesDefined() {
+        return this.classesDefined.sum();
+    }
+
+    @Override
+    public Map<String, TransformerTimes> getTransformerTimes() {
+        Map<String, TransformerTimes> result = new TreeMap<String, TransformerTimes>();
+        for (Map.Entry<String, TimingHistogram> entry : this.transformers.entrySet()) {
+            TimingHistogram histogram = entry.getValue();
+            result.put(entry.getKey(), new TransformerTimes(histogram.getCount(), histogram.getTotalNanos(), histogram.getBuckets()));
+        }
+        return result;
+    }
+
+    /**
+     * Registers the metrics under the name of the service jar the loader reads from.
+     */
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.err.println("Failed registering class loader metrics MBean for " + name);
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassLoaderMetrics[" + this.getFindClassCalls() + " lookups, " + this.getClassCacheHits() + " cache hits, " + this.getNegativeHits() + " negative hits, " + this.getParentDelegations() + " delegations, " + this.getBytesRead() + " bytes read, " + this.getBytesDefined() + " bytes defined]";
+    }
+
+}
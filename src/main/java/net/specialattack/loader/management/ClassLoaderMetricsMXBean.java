@@ -0,0 +1,30 @@
+package net.specialattack.loader.management;
+
+import java.util.Map;
+
+public interface ClassLoaderMetricsMXBean {
+
+    long getFindClassCalls();
+
+    long getClassCacheHits();
+
+    long getClassBytesCacheHits();
+
+    long getClassBytesCacheMisses();
+
+    /**
+     * Lookups answered from the sets of classes known to be missing or broken.
+     */
+    long getNegativeHits();
+
+    long getParentDelegations();
+
+    long getBytesRead();
+
+    long getBytesDefined();
+
+    long getClassesDefined();
+
+    Map<String, TransformerTimes> getTransformerTimes();
+
+}
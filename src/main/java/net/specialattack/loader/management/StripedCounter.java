@@ -0,0 +1,50 @@
+package net.specialattack.loader.management;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is cheap to update from many threads at once. Each thread adds to one of several cells, which are
+ * spread over separate cache lines, and reading sums all cells.
+ */
+public final class StripedCounter {
+
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        int wanted = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (stripes < wanted) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        this.add(1L);
+    }
+
+    public void add(long value) {
+        this.cells.getAndAdd(index(), value);
+    }
+
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += this.cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int index() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(this.sum());
+    }
+
+}
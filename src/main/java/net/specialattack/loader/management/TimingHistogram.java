@@ -0,0 +1,40 @@
+package net.specialattack.loader.management;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with power of two buckets: bucket n counts durations of less than 2^n nanoseconds that did
+ * not fit in bucket n - 1.
+ */
+public final class TimingHistogram {
+
+    public static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+
+    public void record(long nanos) {
+        int bucket = nanos <= 0L ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+        this.buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        this.count.increment();
+        this.total.add(nanos);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getTotalNanos() {
+        return this.total.sum();
+    }
+
+    public long[] getBuckets() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = this.buckets.get(i);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,33 @@
+package net.specialattack.loader.management;
+
+/**
+ * Snapshot of a {@link TimingHistogram}, as published over JMX.
+ */
+public class TransformerTimes {
+
+    private final long count;
+    private final long totalNanos;
+    private final long[] buckets;
+
+    public TransformerTimes(long count, long totalNanos, long[] buckets) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.buckets = buckets;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getTotalNanos() {
+        return this.totalNanos;
+    }
+
+    /**
+     * Bucket n holds the number of calls that took less than 2^n nanoseconds, but at least 2^(n - 1).
+     */
+    public long[] getBuckets() {
+        return this.buckets;
+    }
+
+}
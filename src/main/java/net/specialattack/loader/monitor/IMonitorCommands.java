@@ -0,0 +1,24 @@
+package net.specialattack.loader.monitor;
+
+import java.util.Map;
+
+/**
+ * What the monitor server can ask of the loader. Status, metrics and the service list are requested on the selector
+ * thread and should return quickly, starting and stopping services is done on a separate thread.
+ */
+public interface IMonitorCommands {
+
+    Map<String, Long> getStatus();
+
+    Map<String, Long> getMetrics();
+
+    /**
+     * Returns every service, and whether it is started.
+     */
+    Map<String, Boolean> getServices();
+
+    void startService(String name);
+
+    void stopService(String name);
+
+}
@@ -0,0 +1,103 @@
+package net.specialattack.loader.monitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Every message in either direction is a frame of an int length, followed by that many bytes: an opcode byte, an
+ * int request id and the payload. Responses carry the opcode of the request with {@link #RESPONSE} set and the id of
+ * the request, or {@link #ERROR} with a message. Strings are written as by {@link DataOutputStream#writeUTF}.
+ */
+public final class MonitorProtocol {
+
+    public static final int HEADER_LENGTH = 5;
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    /**
+     * No payload, responds with an empty payload.
+     */
+    public static final int PING = 0x01;
+    /**
+     * No payload, responds with a map of longs.
+     */
+    public static final int STATUS = 0x02;
+    /**
+     * No payload, responds with a map of longs.
+     */
+    public static final int METRICS = 0x03;
+    /**
+     * No payload, responds with an int count followed by a name and a started boolean for every service.
+     */
+    public static final int LIST_SERVICES = 0x04;
+    /**
+     * The service name as payload, responds with an empty payload once the service is started.
+     */
+    public static final int START_SERVICE = 0x05;
+    /**
+     * The service name as payload, responds with an empty payload once the service is stopped.
+     */
+    public static final int STOP_SERVICE = 0x06;
+
+    public static final int RESPONSE = 0x80;
+    /**
+     * An error message as payload.
+     */
+    public static final int ERROR = 0x7F;
+
+    private MonitorProtocol() {
+    }
+
+    public static ByteBuffer frame(int opcode, int requestId, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + HEADER_LENGTH + payload.length);
+        buffer.putInt(HEADER_LENGTH + payload.length);
+        buffer.put((byte) opcode);
+        buffer.putInt(requestId);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static byte[] encodeString(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(bytes).writeUTF(value);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed encoding string", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encodeLongs(Map<String, Long> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(values.size());
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed encoding values", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encodeBooleans(Map<String, Boolean> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(values.size());
+            for (Map.Entry<String, Boolean> entry : values.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed encoding values", e);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,329 @@
+package net.specialattack.loader.monitor;
+
+import net.specialattack.loader.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves any number of monitor clients from a single selector thread, see {@link MonitorProtocol} for the protocol.
+ * Responses are queued per client and written as the client accepts them; a client with too much unread output is
+ * not read from until it catches up.
+ */
+public class MonitorServer implements Runnable, Closeable {
+
+    private static final int HIGH_WATER_MARK = 256 * 1024;
+    private static final int LOW_WATER_MARK = 64 * 1024;
+
+    private final IMonitorCommands commands;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Queue<Response> completed = new ConcurrentLinkedQueue<Response>();
+    private final ExecutorService executor;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    /**
+     * Listens on the loopback interface only, the protocol has no authentication.
+     */
+    public MonitorServer(int port, IMonitorCommands commands) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, commands);
+    }
+
+    /**
+     * @param address The address to listen on, anyone who can reach it can start and stop services
+     */
+    public MonitorServer(InetAddress address, int port, IMonitorCommands commands) throws IOException {
+        this.commands = commands;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            this.server.configureBlocking(false);
+            this.server.socket().bind(new InetSocketAddress(address, port));
+            this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            Util.close(this.server);
+            Util.close(this.selector);
+            throw e;
+        }
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Monitor command thread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        this.thread = new Thread(this, "Monitor connection thread");
+        // Keeps the process running like the blocking accept did, also when started from a daemon thread
+        this.thread.setDaemon(false);
+        this.thread.start();
+    }
+
+    public int getPort() {
+        return this.server.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (this.running) {
+                this.selector.select();
+                if (!this.running) {
+                    break;
+                }
+
+                Response response;
+                while ((response = this.completed.poll()) != null) {
+                    if (response.connection.key.isValid()) {
+                        response.connection.send(response.frame);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            this.accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+        } catch (IOException e) {
+            System.err.println("Monitor server failed");
+            e.printStackTrace();
+        } finally {
+            this.closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+        System.out.println("Monitor client connected from " + channel.socket().getRemoteSocketAddress());
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.executor.shutdownNow();
+        this.selector.wakeup();
+        if (this.thread == null) {
+            this.closeAll();
+        }
+    }
+
+    private void closeAll() {
+        if (this.selector.isOpen()) {
+            for (SelectionKey key : this.selector.keys()) {
+                Util.close(key.channel());
+            }
+        }
+        Util.close(this.server);
+        Util.close(this.selector);
+    }
+
+    private void handle(final Connection connection, int opcode, final int requestId, byte[] payload) throws IOException {
+        switch (opcode) {
+            case MonitorProtocol.PING:
+                connection.respond(opcode, requestId, new byte[0]);
+                break;
+            case MonitorProtocol.STATUS:
+                connection.respond(opcode, requestId, MonitorProtocol.encodeLongs(this.commands.getStatus()));
+                break;
+            case MonitorProtocol.METRICS:
+                connection.respond(opcode, requestId, MonitorProtocol.encodeLongs(this.commands.getMetrics()));
+                break;
+            case MonitorProtocol.LIST_SERVICES:
+                connection.respond(opcode, requestId, MonitorProtocol.encodeBooleans(this.commands.getServices()));
+                break;
+            case MonitorProtocol.START_SERVICE:
+            case MonitorProtocol.STOP_SERVICE:
+                final int command = opcode;
+                final String name = new DataInputStream(new ByteArrayInputStream(payload)).readUTF();
+                this.executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        ByteBuffer frame;
+                        try {
+                            if (command == MonitorProtocol.START_SERVICE) {
+                                MonitorServer.this.commands.startService(name);
+                            } else {
+                                MonitorServer.this.commands.stopService(name);
+                            }
+                            frame = MonitorProtocol.frame(command | MonitorProtocol.RESPONSE, requestId, new byte[0]);
+                        } catch (Throwable e) {
+                            frame = MonitorProtocol.frame(MonitorProtocol.ERROR, requestId, MonitorProtocol.encodeString(String.valueOf(e.getMessage())));
+                        }
+                        MonitorServer.this.completed.add(new Response(connection, frame));
+                        MonitorServer.this.selector.wakeup();
+                    }
+                });
+                break;
+            default:
+                connection.send(MonitorProtocol.frame(MonitorProtocol.ERROR, requestId, MonitorProtocol.encodeString("Unknown opcode " + opcode)));
+        }
+    }
+
+    private static class Response {
+
+        private final Connection connection;
+        private final ByteBuffer frame;
+
+        private Response(Connection connection, ByteBuffer frame) {
+            this.connection = connection;
+            this.frame = frame;
+        }
+    }
+
+    private class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(1024);
+        private final Deque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+        private int pending;
+        private boolean paused;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            int read = this.channel.read(this.input);
+            if (read < 0) {
+                this.close();
+                return;
+            }
+            this.process();
+        }
+
+        private void process() throws IOException {
+            this.input.flip();
+            while (this.input.remaining() >= 4 && !this.paused) {
+                int length = this.input.getInt(this.input.position());
+                if (length < MonitorProtocol.HEADER_LENGTH || length > MonitorProtocol.MAX_FRAME_LENGTH) {
+                    System.err.println("Invalid monitor frame length " + length + ", disconnecting client");
+                    this.close();
+                    return;
+                }
+                if (this.input.remaining() < 4 + length) {
+                    if (this.input.capacity() < 4 + length) {
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(this.input);
+                        larger.flip();
+                        this.input = larger;
+                    }
+                    break;
+                }
+
+                this.input.getInt();
+                int opcode = this.input.get() & 0xFF;
+                int requestId = this.input.getInt();
+                byte[] payload = new byte[length - MonitorProtocol.HEADER_LENGTH];
+                this.input.get(payload);
+                try {
+                    MonitorServer.this.handle(this, opcode, requestId, payload);
+                } catch (RuntimeException e) {
+                    this.send(MonitorProtocol.frame(MonitorProtocol.ERROR, requestId, MonitorProtocol.encodeString(String.valueOf(e.getMessage()))));
+                }
+            }
+            this.input.compact();
+        }
+
+        private void respond(int opcode, int requestId, byte[] payload) {
+            this.send(MonitorProtocol.frame(opcode | MonitorProtocol.RESPONSE, requestId, payload));
+        }
+
+        private void send(ByteBuffer frame) {
+            this.output.add(frame);
+            this.pending += frame.remaining();
+            if (this.pending > HIGH_WATER_MARK && !this.paused) {
+                // Stop taking requests until the client reads what it asked for
+                this.paused = true;
+                this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        private void write() throws IOException {
+            while (!this.output.isEmpty()) {
+                ByteBuffer frame = this.output.peek();
+                int written = this.channel.write(frame);
+                this.pending -= written;
+                if (frame.hasRemaining()) {
+                    break;
+                }
+                this.output.poll();
+            }
+
+            int ops = this.key.interestOps();
+            if (this.output.isEmpty()) {
+                ops &= ~SelectionKey.OP_WRITE;
+            }
+            if (this.paused && this.pending < LOW_WATER_MARK) {
+                this.paused = false;
+                ops |= SelectionKey.OP_READ;
+            }
+            this.key.interestOps(ops);
+            if (!this.paused && this.input.position() > 0) {
+                // Requests that arrived while paused are already buffered
+                this.process();
+            }
+        }
+
+        private void close() {
+            this.key.cancel();
+            Util.close(this.channel);
+        }
+    }
+
+}
@@ -0,0 +1,297 @@
+package net.specialattack.loader.tracking;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tracker that never blocks the services sending updates. Updates go into a ring buffer that is drained by a flusher
+ * thread every window, which keeps only the latest data per id and hands the result to the subscribers in batches.
+ * When the ring is full, updates go to an overflow map that only holds the latest data per id, and every subscriber
+ * queues at most one pending value per id, so memory is bounded by the number of ids rather than by the update rate.
+ * <p/>
+ * Every update is numbered when it is sent. Updates can reach the flusher out of that order, when a slot is claimed
+ * after a later one or an update waits in the overflow map, so an update only replaces the data of an id if it is
+ * newer than what is there.
+ */
+public class BatchingTracker implements ITracker, Closeable {
+
+    private final int mask;
+    private final AtomicReferenceArray<Update> ring;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<String, Update> overflow = new ConcurrentHashMap<String, Update>();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final long window;
+    private final Map<String, Update> state = new LinkedHashMap<String, Update>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private final ExecutorService delivery;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity The size of the ring buffer, rounded up to a power of two
+     * @param window   How long updates are collected before they are sent, in milliseconds
+     * @param threads  The number of threads delivering batches to subscribers
+     */
+    public BatchingTracker(int capacity, long window, int threads) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.ring = new AtomicReferenceArray<Update>(size);
+        this.window = window;
+        this.delivery = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Tracking delivery thread " + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flusher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                BatchingTracker.this.runFlusher();
+            }
+        }, "Tracking flush thread");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void sendTrackingUpdate(String id, byte[] data) {
+        Update update = new Update(id, data, this.sequence.getAndIncrement());
+        while (true) {
+            long tail = this.tail.get();
+            if (tail - this.head.get() > this.mask) {
+                this.putOverflow(update);
+                this.overflowed.incrementAndGet();
+                return;
+            }
+            if (this.tail.compareAndSet(tail, tail + 1)) {
+                this.ring.lazySet((int) tail & this.mask, update);
+                return;
+            }
+        }
+    }
+
+    private void putOverflow(Update update) {
+        while (true) {
+            Update previous = this.overflow.get(update.id);
+            if (previous == null) {
+                if (this.overflow.putIfAbsent(update.id, update) == null) {
+                    return;
+                }
+            } else if (previous.sequence > update.sequence || this.overflow.replace(update.id, previous, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Subscribes to updates, starting with a batch holding the latest data of every id seen so far.
+     */
+    public void subscribe(ITrackingSubscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        synchronized (this.state) {
+            // Added first, delivery skips subscriptions that are not in the list
+            this.subscriptions.add(subscription);
+            subscription.offer(this.state);
+        }
+    }
+
+    public void unsubscribe(ITrackingSubscriber subscriber) {
+        for (Subscription subscription : this.subscriptions) {
+            if (subscription.subscriber == subscriber) {
+                this.subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Returns how many updates did not fit in the ring buffer.
+     */
+    public long getOverflowed() {
+        return this.overflowed.get();
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.flusher.interrupt();
+        try {
+            this.flusher.join(1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.delivery.shutdown();
+        try {
+            this.delivery.awaitTermination(1L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runFlusher() {
+        while (this.running) {
+            try {
+                Thread.sleep(this.window);
+            } catch (InterruptedException e) {
+                // Closing, flush what is left
+            }
+            try {
+                this.flush();
+            } catch (Throwable e) {
+                System.err.println("Failed flushing tracking updates");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void flush() {
+        Map<String, Update> batch = new LinkedHashMap<String, Update>();
+        long head = this.head.get();
+        long tail = this.tail.get();
+        boolean drained = true;
+        while (head < tail) {
+            int index = (int) head & this.mask;
+            Update update = this.ring.get(index);
+            if (update == null) {
+                // Claimed, but not written yet
+                drained = false;
+                break;
+            }
+            this.ring.lazySet(index, null);
+            head++;
+            this.head.lazySet(head);
+            merge(batch, update);
+        }
+        // Overflow only holds updates sent while the ring was full, leave them until everything before them is read
+        if (drained && !this.overflow.isEmpty()) {
+            for (String id : new ArrayList<String>(this.overflow.keySet())) {
+                Update update = this.overflow.remove(id);
+                if (update != null) {
+                    merge(batch, update);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        synchronized (this.state) {
+            Map<String, Update> updates = new LinkedHashMap<String, Update>();
+            for (Update update : batch.values()) {
+                // An older update of an id read after a newer one in an earlier flush
+                if (merge(this.state, update)) {
+                    updates.put(update.id, update);
+                }
+            }
+            for (Subscription subscription : this.subscriptions) {
+                subscription.offer(updates);
+            }
+        }
+    }
+
+    /**
+     * Puts the update in the map unless it already holds a newer one for the id, returns whether it was put.
+     */
+    private static boolean merge(Map<String, Update> updates, Update update) {
+        Update previous = updates.get(update.id);
+        if (previous == null || previous.sequence < update.sequence) {
+            updates.put(update.id, update);
+            return true;
+        }
+        return false;
+    }
+
+    private static class Update {
+
+        private final String id;
+        private final byte[] data;
+        private final long sequence;
+
+        private Update(String id, byte[] data, long sequence) {
+            this.id = id;
+            this.data = data;
+            this.sequence = sequence;
+        }
+    }
+
+    private class Subscription implements Runnable {
+
+        private final ITrackingSubscriber subscriber;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private Map<String, Update> pending = new LinkedHashMap<String, Update>();
+
+        private Subscription(ITrackingSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void offer(Map<String, Update> updates) {
+            if (updates.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                for (Update update : updates.values()) {
+                    merge(this.pending, update);
+                }
+            }
+            if (this.scheduled.compareAndSet(false, true)) {
+                BatchingTracker.this.delivery.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Map<String, Update> pending;
+            synchronized (this) {
+                pending = this.pending;
+                this.pending = new LinkedHashMap<String, Update>();
+            }
+            try {
+                if (!pending.isEmpty() && BatchingTracker.this.subscriptions.contains(this)) {
+                    Map<String, byte[]> batch = new LinkedHashMap<String, byte[]>();
+                    for (Update update : pending.values()) {
+                        batch.put(update.id, update.data);
+                    }
+                    this.subscriber.receiveBatch(Collections.unmodifiableMap(batch));
+                }
+            } catch (Throwable e) {
+                System.err.println("Tracking subscriber " + this.subscriber + " failed");
+                e.printStackTrace();
+            } finally {
+                this.scheduled.set(false);
+                boolean more;
+                synchronized (this) {
+                    more = !this.pending.isEmpty();
+                }
+                if (more && this.scheduled.compareAndSet(false, true)) {
+                    BatchingTracker.this.delivery.execute(this);
+                }
+            }
+        }
+    }
+
+}
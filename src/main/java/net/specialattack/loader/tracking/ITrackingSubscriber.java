@@ -0,0 +1,13 @@
+package net.specialattack.loader.tracking;
+
+import java.util.Map;
+
+public interface ITrackingSubscriber {
+
+    /**
+     * Receives the latest data of every id that changed since the previous batch, in the order the ids first
+     * changed. Batches for one subscriber are never delivered concurrently.
+     */
+    void receiveBatch(Map<String, byte[]> updates);
+
+}
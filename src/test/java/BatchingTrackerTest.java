@@ -0,0 +1,237 @@
+import net.specialattack.loader.tracking.BatchingTracker;
+import net.specialattack.loader.tracking.ITrackingSubscriber;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the delivery guarantees of {@link BatchingTracker}: subscribers get the latest data per id, never older data
+ * after newer data, a snapshot when they subscribe and at most one value per id while they are busy.
+ */
+public class BatchingTrackerTest {
+
+    public static void main(String[] params) throws Exception {
+        latestValueOnly();
+        neverOlderAfterNewer(1 << 16);
+        // A ring of four slots, so nearly every update goes through the overflow map
+        neverOlderAfterNewer(4);
+        snapshotOnSubscribe();
+        slowSubscriber();
+        System.out.println("All batching tracker checks passed");
+    }
+
+    private static void latestValueOnly() throws InterruptedException {
+        BatchingTracker tracker = new BatchingTracker(1024, 200L, 1);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        tracker.subscribe(subscriber);
+        for (int i = 0; i <= 1000; i++) {
+            tracker.sendTrackingUpdate("a", value(i));
+            tracker.sendTrackingUpdate("b", value(i * 2));
+        }
+        subscriber.awaitValue("a", 1000);
+        subscriber.awaitValue("b", 2000);
+        tracker.close();
+
+        // Sent within one window, or two when a flush happened in between
+        check(subscriber.deliveries("a") <= 2, "Expected the updates of a to be coalesced, got " + subscriber.deliveries("a") + " deliveries");
+        check(subscriber.deliveries("b") <= 2, "Expected the updates of b to be coalesced, got " + subscriber.deliveries("b") + " deliveries");
+        subscriber.checkFailures();
+    }
+
+    /**
+     * Several threads send increasing values to the same ids, the values are taken in one lock so their order is the
+     * order of sending. Subscribers must never see a value go down.
+     */
+    private static void neverOlderAfterNewer(int capacity) throws Exception {
+        final BatchingTracker tracker = new BatchingTracker(capacity, 1L, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        tracker.subscribe(subscriber);
+
+        final Object lock = new Object();
+        final AtomicLong counter = new AtomicLong();
+        final int ids = 5;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50000; j++) {
+                        synchronized (lock) {
+                            long value = counter.incrementAndGet();
+                            tracker.sendTrackingUpdate("id" + value % ids, value(value));
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long last = counter.get();
+        for (int i = 0; i < ids; i++) {
+            subscriber.awaitValue("id" + (last - i) % ids, last - i);
+        }
+        tracker.close();
+        subscriber.checkFailures();
+        if (capacity < 16) {
+            check(tracker.getOverflowed() > 0, "Expected updates to go through the overflow map");
+        }
+    }
+
+    private static void snapshotOnSubscribe() throws InterruptedException {
+        BatchingTracker tracker = new BatchingTracker(1024, 5L, 1);
+        RecordingSubscriber first = new RecordingSubscriber();
+        tracker.subscribe(first);
+        for (int i = 0; i < 10; i++) {
+            tracker.sendTrackingUpdate("id" + i, value(i));
+            tracker.sendTrackingUpdate("id" + i, value(i + 100));
+        }
+        first.awaitValue("id9", 109);
+
+        RecordingSubscriber second = new RecordingSubscriber();
+        tracker.subscribe(second);
+        Map<String, byte[]> snapshot = second.awaitBatch();
+        tracker.close();
+
+        check(snapshot.size() == 10, "Expected a snapshot of 10 ids, got " + snapshot.size());
+        for (int i = 0; i < 10; i++) {
+            check(snapshot.containsKey("id" + i) && parse(snapshot.get("id" + i)) == i + 100, "Snapshot has the wrong value for id" + i);
+        }
+        second.checkFailures();
+    }
+
+    /**
+     * While the subscriber is stuck in its first batch everything sent is queued for it, which has to be one value per
+     * id, the latest one.
+     */
+    private static void slowSubscriber() throws InterruptedException {
+        BatchingTracker tracker = new BatchingTracker(1024, 1L, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+
+            @Override
+            public void receiveBatch(Map<String, byte[]> updates) {
+                super.receiveBatch(updates);
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        tracker.subscribe(subscriber);
+        tracker.sendTrackingUpdate("id0", value(0));
+        blocked.await();
+
+        for (int i = 1; i <= 20000; i++) {
+            tracker.sendTrackingUpdate("id" + i % 10, value(i));
+            if (i % 1000 == 0) {
+                // Let the flusher pass several windows while the subscriber is stuck
+                Thread.sleep(2L);
+            }
+        }
+        Thread.sleep(50L);
+        release.countDown();
+        subscriber.awaitValue("id0", 20000);
+        tracker.close();
+
+        List<Map<String, byte[]>> batches = subscriber.getBatches();
+        check(batches.size() == 2, "Expected the queued updates in one batch, got " + batches.size() + " batches");
+        Map<String, byte[]> queued = batches.get(1);
+        check(queued.size() == 10, "Expected one queued value for each of 10 ids, got " + queued.size());
+        for (int i = 0; i < 10; i++) {
+            check(parse(queued.get("id" + i)) == 19990 + (i == 0 ? 10 : i), "Queued value of id" + i + " is not the latest");
+        }
+        subscriber.checkFailures();
+    }
+
+    private static byte[] value(long value) {
+        return Long.toString(value).getBytes();
+    }
+
+    private static long parse(byte[] data) {
+        return Long.parseLong(new String(data));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    private static class RecordingSubscriber implements ITrackingSubscriber {
+
+        private final Map<String, Long> latest = new HashMap<String, Long>();
+        private final Map<String, Integer> deliveries = new HashMap<String, Integer>();
+        private final List<Map<String, byte[]>> batches = new ArrayList<Map<String, byte[]>>();
+        private final AtomicReference<String> failure = new AtomicReference<String>();
+
+        @Override
+        public void receiveBatch(Map<String, byte[]> updates) {
+            synchronized (this) {
+                this.batches.add(updates);
+                for (Map.Entry<String, byte[]> entry : updates.entrySet()) {
+                    long value = parse(entry.getValue());
+                    Long previous = this.latest.get(entry.getKey());
+                    if (previous != null && previous > value) {
+                        this.failure.compareAndSet(null, "Value of " + entry.getKey() + " went from " + previous + " back to " + value);
+                    }
+                    this.latest.put(entry.getKey(), value);
+                    Integer count = this.deliveries.get(entry.getKey());
+                    this.deliveries.put(entry.getKey(), count == null ? 1 : count + 1);
+                }
+                this.notifyAll();
+            }
+        }
+
+        synchronized void awaitValue(String id, long value) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (this.latest.get(id) == null || this.latest.get(id) != value) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0L) {
+                    throw new RuntimeException("Timed out waiting for " + id + " to become " + value + ", it is " + this.latest.get(id));
+                }
+                this.wait(wait);
+            }
+        }
+
+        synchronized Map<String, byte[]> awaitBatch() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (this.batches.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0L) {
+                    throw new RuntimeException("Timed out waiting for a batch");
+                }
+                this.wait(wait);
+            }
+            return this.batches.get(0);
+        }
+
+        synchronized int deliveries(String id) {
+            Integer count = this.deliveries.get(id);
+            return count == null ? 0 : count;
+        }
+
+        synchronized List<Map<String, byte[]>> getBatches() {
+            return Collections.unmodifiableList(new ArrayList<Map<String, byte[]>>(this.batches));
+        }
+
+        void checkFailures() {
+            if (this.failure.get() != null) {
+                throw new RuntimeException(this.failure.get());
+            }
+        }
+    }
+
+}
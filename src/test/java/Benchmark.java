@@ -0,0 +1,75 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Minimal benchmark runner: every benchmark runs a number of warmup rounds and then a number of measured rounds of a
+ * fixed amount of operations, and the median and best time per operation are printed, together with the bytes
+ * allocated per operation by the benchmark thread when the JVM can tell.
+ */
+public class Benchmark {
+
+    private static final int WARMUP_ROUNDS = Integer.getInteger("bench.warmup", 5);
+    private static final int ROUNDS = Integer.getInteger("bench.rounds", 10);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static volatile Object sink;
+
+    public static void header() {
+        System.out.println(String.format("%-48s %14s %14s %12s", "benchmark", "median ns/op", "best ns/op", "B/op"));
+    }
+
+    public static void run(String name, int operations, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round(operations, operation);
+        }
+
+        long allocated = allocatedBytes();
+        List<Double> times = new ArrayList<Double>();
+        for (int i = 0; i < ROUNDS; i++) {
+            times.add(round(operations, operation) / (double) operations);
+        }
+        if (allocated >= 0L) {
+            allocated = (allocatedBytes() - allocated) / ((long) ROUNDS * operations);
+        }
+        Collections.sort(times);
+        System.out.println(String.format("%-48s %14.1f %14.1f %12s", name, times.get(times.size() / 2), times.get(0), allocated >= 0L ? Long.toString(allocated) : "-"));
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    private static long round(int operations, Operation operation) throws Exception {
+        operation.setup();
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            sink = operation.run(i);
+        }
+        long time = System.nanoTime() - start;
+        operation.teardown();
+        return time;
+    }
+
+    public static abstract class Operation {
+
+        /**
+         * Called before every round, outside of the measured time.
+         */
+        public void setup() throws Exception {
+        }
+
+        /**
+         * Returns a value derived from the work done, so the work can't be optimized away.
+         */
+        public abstract Object run(int index) throws Exception;
+
+        public void teardown() throws Exception {
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+import net.specialattack.loader.Util;
+import net.specialattack.loader.logging.BinaryLogDecoder;
+import net.specialattack.loader.logging.BinaryLogHandler;
+import net.specialattack.loader.logging.FileLogFormatter;
+import net.specialattack.loader.logging.LogRotation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes records with {@link BinaryLogHandler}, rotating and compressing on the way, and checks that decoding every
+ * file gives exactly what {@link FileLogFormatter} makes of the original records.
+ */
+public class BinaryLogTest {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final Pattern ROTATED = Pattern.compile("raw\\.bin\\.(\\d{4}-\\d{2}-\\d{2}-\\d{6})(?:-(\\d+))?(\\.gz)?");
+
+    public static void main(String[] params) throws Exception {
+        File folder = File.createTempFile("binarylog", "");
+        if (!folder.delete() || !folder.mkdir()) {
+            throw new RuntimeException("Failed creating " + folder);
+        }
+        File file = new File(folder, "raw.bin");
+
+        List<LogRecord> records = createRecords();
+        BinaryLogHandler handler = new BinaryLogHandler(file.getPath(), false, new LogRotation(512 * 1024, false, 0, true));
+        for (LogRecord record : records) {
+            handler.publish(record);
+        }
+        handler.close();
+
+        List<File> files = waitForCompression(folder);
+        if (files.size() < 3) {
+            throw new RuntimeException("Expected the log to be rotated, found " + files);
+        }
+        files.add(file);
+
+        FileLogFormatter formatter = new FileLogFormatter();
+        StringBuilder expected = new StringBuilder();
+        for (LogRecord record : records) {
+            expected.append(formatter.format(record)).append(LINE_SEPARATOR);
+        }
+        StringBuilder actual = new StringBuilder();
+        for (File input : files) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(input);
+                if (input.getName().endsWith(".gz")) {
+                    in = new GZIPInputStream(in);
+                }
+                BinaryLogDecoder decoder = new BinaryLogDecoder(in);
+                LogRecord record;
+                while ((record = decoder.next()) != null) {
+                    actual.append(formatter.format(record)).append(LINE_SEPARATOR);
+                }
+            } finally {
+                Util.close(in);
+            }
+        }
+
+        compare(expected.toString(), actual.toString());
+        for (File input : files) {
+            input.delete();
+        }
+        folder.delete();
+        System.out.println("Decoded " + records.size() + " records from " + files.size() + " files");
+    }
+
+    private static List<LogRecord> createRecords() {
+        Level custom = new CustomLevel("AUDIT", 850);
+        Level[] levels = { Level.SEVERE, Level.WARNING, Level.INFO, custom, Level.CONFIG, Level.FINE, Level.FINEST };
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        long millis = 1400000000000L;
+        // More logger names than the handler keeps, so its name table is reset in the middle of a file
+        for (int i = 0; i < 20000; i++) {
+            LogRecord record = new LogRecord(levels[i % levels.length], "Record " + i + " from a service, caf\u00e9 \u4e2d\u6587");
+            record.setLoggerName(i % 5 == 0 ? "STDOUT" : "net.specialattack.service" + i);
+            // Now and then the clock goes back
+            millis += i % 11 == 0 ? -90000L : 1234L;
+            record.setMillis(millis);
+            records.add(record);
+        }
+
+        LogRecord parameters = new LogRecord(Level.WARNING, "Connection %s closed after %d ms");
+        parameters.setLoggerName("STDERR");
+        parameters.setParameters(new Object[] { "127.0.0.1:4000", 1500 });
+        parameters.setMillis(millis);
+        records.add(parameters);
+
+        LogRecord thrown = new LogRecord(Level.SEVERE, "Service failed");
+        thrown.setLoggerName("STDERR");
+        thrown.setThrown(new IllegalStateException("Broken"));
+        thrown.setMillis(millis - 1L);
+        records.add(thrown);
+
+        // Larger than the write buffer of the handler
+        char[] chars = new char[100000];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = i % 64 == 63 ? '\n' : (char) ('a' + i % 26);
+        }
+        chars[500] = '\u00e9';
+        LogRecord large = new LogRecord(Level.INFO, new String(chars));
+        large.setLoggerName("STDOUT");
+        large.setMillis(millis + 1L);
+        records.add(large);
+
+        LogRecord unnamed = new LogRecord(Level.INFO, "No logger");
+        unnamed.setMillis(0L);
+        records.add(unnamed);
+        return records;
+    }
+
+    /**
+     * Returns the rotated files oldest first, once all of them are compressed.
+     */
+    private static List<File> waitForCompression(File folder) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000L;
+        while (true) {
+            List<File> files = new ArrayList<File>();
+            boolean done = true;
+            for (File file : folder.listFiles()) {
+                if (ROTATED.matcher(file.getName()).matches()) {
+                    files.add(file);
+                    done &= file.getName().endsWith(".gz");
+                } else if (!file.getName().equals("raw.bin")) {
+                    done = false;
+                }
+            }
+            if (done) {
+                Collections.sort(files, new Comparator<File>() {
+
+                    @Override
+                    public int compare(File first, File second) {
+                        Matcher a = ROTATED.matcher(first.getName());
+                        Matcher b = ROTATED.matcher(second.getName());
+                        a.matches();
+                        b.matches();
+                        int difference = a.group(1).compareTo(b.group(1));
+                        if (difference != 0) {
+                            return difference;
+                        }
+                        return (a.group(2) == null ? 0 : Integer.parseInt(a.group(2))) - (b.group(2) == null ? 0 : Integer.parseInt(b.group(2)));
+                    }
+                });
+                return files;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("Rotated files were not compressed: " + Arrays.toString(folder.list()));
+            }
+            Thread.sleep(50L);
+        }
+    }
+
+    private static void compare(String expected, String actual) {
+        if (expected.equals(actual)) {
+            return;
+        }
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+        for (int i = 0; i < Math.min(expectedLines.length, actualLines.length); i++) {
+            if (!expectedLines[i].equals(actualLines[i])) {
+                throw new RuntimeException("Decoded log differs at line " + (i + 1) + "\nexpected: " + expectedLines[i] + "\nactual:   " + actualLines[i]);
+            }
+        }
+        throw new RuntimeException("Decoded log has " + actualLines.length + " lines, expected " + expectedLines.length);
+    }
+
+    private static class CustomLevel extends Level {
+
+        private static final long serialVersionUID = 1L;
+
+        private CustomLevel(String name, int value) {
+            super(name, value);
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+import net.specialattack.loader.Util;
+import net.specialattack.loader.jar.JarArchive;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks that {@link JarArchive} reads the same entries as {@link ZipFile}, and fails with an IOException on broken
+ * jars instead of returning wrong data.
+ */
+public class JarArchiveTest {
+
+    private static final String COMMENT = "Test jar";
+
+    public static void main(String[] params) throws Exception {
+        File jar = File.createTempFile("jararchive", ".jar");
+        try {
+            long storedOffset = writeJar(jar);
+            compareWithZipFile(jar);
+            readConcurrently(jar);
+            readAfterClose(jar);
+            corruptEntry(jar, storedOffset);
+            truncatedJar(jar);
+            notAJar(jar);
+        } finally {
+            jar.delete();
+        }
+        System.out.println("All jar archive checks passed");
+    }
+
+    /**
+     * Writes a jar with deflated, stored, empty and large entries, returns where the data of the stored entry starts.
+     */
+    private static long writeJar(File file) throws IOException {
+        Random random = new Random(42L);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file), new Manifest());
+        try {
+            out.setComment(COMMENT);
+            out.putNextEntry(new ZipEntry("net/specialattack/"));
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("net/specialattack/Service.class"));
+            byte[] data = new byte[5000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (random.nextInt(16) + 'a');
+            }
+            out.write(data);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("empty.txt"));
+            out.closeEntry();
+
+            // Several megabytes, larger than any buffer of the inflater
+            ZipEntry large = new ZipEntry("large.bin");
+            out.putNextEntry(large);
+            byte[] chunk = new byte[64 * 1024];
+            for (int i = 0; i < 64; i++) {
+                random.nextBytes(chunk);
+                Arrays.fill(chunk, 0, chunk.length / 2, (byte) i);
+                out.write(chunk);
+            }
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("d\u00e9j\u00e0/caf\u00e9.txt"));
+            out.write("caf\u00e9".getBytes("UTF-8"));
+            out.closeEntry();
+
+            byte[] stored = "Stored without compression".getBytes("UTF-8");
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            ZipEntry entry = new ZipEntry("stored.txt");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(stored.length);
+            entry.setCompressedSize(stored.length);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.flush();
+            long offset = new File(file.getPath()).length();
+            out.write(stored);
+            out.closeEntry();
+            out.finish();
+            return offset;
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void compareWithZipFile(File file) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        JarArchive archive = JarArchive.open(file);
+        try {
+            int files = 0;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    check(archive.getEntry(entry.getName()) == null, "Directory " + entry.getName() + " is listed as an entry");
+                    continue;
+                }
+                files++;
+                JarArchive.Entry archiveEntry = archive.getEntry(entry.getName());
+                check(archiveEntry != null, "Missing entry " + entry.getName());
+                check(archiveEntry.getSize() == entry.getSize(), "Wrong size of " + entry.getName());
+                check(archiveEntry.getCompressedSize() == entry.getCompressedSize(), "Wrong compressed size of " + entry.getName());
+                check(Arrays.equals(archive.read(entry.getName()), readFully(zip.getInputStream(entry))), "Wrong contents of " + entry.getName());
+            }
+            check(archive.getEntries().size() == files, "Expected " + files + " entries, found " + archive.getEntries().size());
+            check(archive.read("missing.class") == null, "Found an entry that does not exist");
+        } finally {
+            archive.close();
+            zip.close();
+        }
+    }
+
+    private static void readConcurrently(File file) throws Exception {
+        final JarArchive archive = JarArchive.open(file);
+        final byte[] expected = archive.read("large.bin");
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            if (!Arrays.equals(archive.read("large.bin"), expected)) {
+                                throw new IllegalStateException("Concurrent read returned wrong contents");
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        archive.close();
+        if (failure.get() != null) {
+            throw new RuntimeException("Concurrent reads failed", failure.get());
+        }
+    }
+
+    private static void readAfterClose(File file) throws IOException {
+        JarArchive archive = JarArchive.open(file);
+        archive.read("stored.txt");
+        archive.close();
+        archive.close();
+        try {
+            archive.read("stored.txt");
+            throw new RuntimeException("Read from a closed archive");
+        } catch (IOException e) {
+            // Expected
+        }
+        check(!isMapped(file), "Jar is still mapped after closing");
+    }
+
+    private static void corruptEntry(File file, long offset) throws IOException {
+        File copy = copy(file, "corrupt");
+        try {
+            RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+            try {
+                raf.seek(offset);
+                int b = raf.read();
+                raf.seek(offset);
+                raf.write(b ^ 0xFF);
+            } finally {
+                raf.close();
+            }
+            JarArchive archive = JarArchive.open(copy);
+            try {
+                archive.read("stored.txt");
+                throw new RuntimeException("Read a corrupt entry");
+            } catch (IOException e) {
+                check(e.getMessage().startsWith("CRC mismatch"), "Unexpected failure for a corrupt entry: " + e.getMessage());
+            } finally {
+                archive.close();
+            }
+        } finally {
+            copy.delete();
+        }
+    }
+
+    private static void truncatedJar(File file) throws IOException {
+        byte[] data = readFully(new FileInputStream(file));
+        // Every length cut off somewhere in the central directory or in the middle of an entry
+        for (int length : new int[] { data.length - 30, data.length - 100, data.length / 2, 1000, 10 }) {
+            File copy = new File(file.getPath() + ".truncated");
+            FileOutputStream out = new FileOutputStream(copy);
+            try {
+                out.write(data, 0, length);
+            } finally {
+                out.close();
+            }
+            try {
+                JarArchive archive = JarArchive.open(copy);
+                archive.close();
+                throw new RuntimeException("Opened a jar truncated to " + length + " bytes");
+            } catch (IOException e) {
+                // Expected
+            } finally {
+                copy.delete();
+            }
+        }
+
+        // The end record pointing at a central directory past the end of the file
+        File copy = copy(file, "shifted");
+        try {
+            RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+            try {
+                // Offset of the central directory in the end record, which is followed by the comment
+                raf.seek(data.length - COMMENT.length() - 22 + 16);
+                raf.write(new byte[] { (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F });
+            } finally {
+                raf.close();
+            }
+            JarArchive archive = JarArchive.open(copy);
+            archive.close();
+            throw new RuntimeException("Opened a jar with a central directory past its end");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            copy.delete();
+        }
+    }
+
+    private static void notAJar(File file) throws IOException {
+        File text = new File(file.getPath() + ".txt");
+        FileOutputStream out = new FileOutputStream(text);
+        try {
+            out.write("Not a jar at all".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        try {
+            JarArchive archive = JarArchive.open(text);
+            archive.close();
+            throw new RuntimeException("Opened a text file as a jar");
+        } catch (IOException e) {
+            check(!isMapped(text), "Text file is still mapped after failing to open it");
+        } finally {
+            text.delete();
+        }
+    }
+
+    /**
+     * Whether the file is still mapped into this process, only known on Linux.
+     */
+    private static boolean isMapped(File file) throws IOException {
+        File maps = new File("/proc/self/maps");
+        if (!maps.exists()) {
+            return false;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(maps));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.endsWith(file.getCanonicalPath())) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static File copy(File file, String suffix) throws IOException {
+        File copy = new File(file.getPath() + "." + suffix);
+        FileOutputStream out = new FileOutputStream(copy);
+        try {
+            out.write(readFully(new FileInputStream(file)));
+        } finally {
+            out.close();
+        }
+        return copy;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            Util.close(in);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException(message);
+        }
+    }
+
+}
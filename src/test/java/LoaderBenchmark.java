@@ -0,0 +1,309 @@
+import net.specialattack.loader.BootClassLoader;
+import net.specialattack.loader.ClassMetadata;
+import net.specialattack.loader.IClassMetadataInspector;
+import net.specialattack.loader.IConcurrentInspector;
+import net.specialattack.loader.Service;
+import net.specialattack.loader.ServiceData;
+import net.specialattack.loader.Util;
+import net.specialattack.loader.asm.ServiceWrapperGenerator;
+import net.specialattack.loader.tracking.TrackableClass;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Benchmarks of the class loading hot paths, run against generated service jars.
+ */
+public class LoaderBenchmark implements Opcodes {
+
+    private static final int[] JAR_SIZES = { 100, 1000, 5000 };
+    private static final Method FIND_CLASS;
+
+    static {
+        try {
+            FIND_CLASS = BootClassLoader.class.getDeclaredMethod("findClass", String.class);
+            FIND_CLASS.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] params) throws Exception {
+        File folder = new File(System.getProperty("java.io.tmpdir"), "bootloader-bench");
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Failed creating " + folder);
+        }
+
+        Benchmark.header();
+        final File jar = generateJar(new File(folder, "classes-1000.jar"), 1000);
+
+        Benchmark.run("findClass cold", 1000, new Benchmark.Operation() {
+
+            private BootClassLoader loader;
+
+            @Override
+            public void setup() throws Exception {
+                this.loader = new BootClassLoader(new URL[] { jar.toURI().toURL() });
+            }
+
+            @Override
+            public Object run(int index) throws Exception {
+                return findClass(this.loader, className(index));
+            }
+
+            @Override
+            public void teardown() throws Exception {
+                this.loader.close();
+            }
+        });
+
+        final BootClassLoader loader = new BootClassLoader(new URL[] { jar.toURI().toURL() });
+        for (int i = 0; i < 1000; i++) {
+            findClass(loader, className(i));
+        }
+
+        Benchmark.run("findClass cached", 1000000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) throws Exception {
+                return findClass(loader, className(index % 1000));
+            }
+        });
+
+        Benchmark.run("findClass excepted", 1000000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) throws Exception {
+                return findClass(loader, "java.lang.String");
+            }
+        });
+
+        Benchmark.run("findClass missing", 1000000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) throws Exception {
+                try {
+                    return findClass(loader, "bench.Missing" + (index & 1023));
+                } catch (ClassNotFoundException e) {
+                    return e;
+                }
+            }
+        });
+
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        for (int size : JAR_SIZES) {
+            final File sized = generateJar(new File(folder, "classes-" + size + ".jar"), size);
+            for (final boolean parallel : new boolean[] { false, true }) {
+                Benchmark.run("inspectAllClasses " + size + " classes" + (parallel ? " parallel" : ""), 1, new Benchmark.Operation() {
+
+                    private BootClassLoader loader;
+                    private AnnotationInspector inspector;
+
+                    @Override
+                    public void setup() throws Exception {
+                        this.loader = new BootClassLoader(new URL[] { sized.toURI().toURL() });
+                        new ServiceData(this.loader);
+                        this.inspector = new AnnotationInspector();
+                        this.loader.addClassInspector(this.inspector);
+                    }
+
+                    @Override
+                    public Object run(int index) throws Exception {
+                        if (parallel) {
+                            this.loader.inspectAllClasses(pool);
+                        } else {
+                            this.loader.inspectAllClasses();
+                        }
+                        return this.inspector.services.size();
+                    }
+
+                    @Override
+                    public void teardown() throws Exception {
+                        this.loader.close();
+                    }
+                });
+            }
+        }
+        pool.shutdown();
+
+        // The transformer creates a wrapper for services with start and stop methods, which can only be defined
+        // once per class, so this measures a service class without them
+        final ServiceData service = new ServiceData(loader);
+        Class<?> transformerClass = Class.forName(ServiceData.class.getName() + "$ClassTransformer");
+        Constructor<?> constructor = transformerClass.getDeclaredConstructor(ServiceData.class);
+        constructor.setAccessible(true);
+        final Object transformer = constructor.newInstance(service);
+        final Method transform = transformerClass.getDeclaredMethod("transform", String.class, ClassNode.class);
+        transform.setAccessible(true);
+        final byte[] serviceClass = generateClass("bench/TransformedService", true);
+        service.addService("bench.TransformedService", null, false);
+
+        Benchmark.run("ServiceData.ClassTransformer.transform", 100000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) throws Exception {
+                ClassNode node = new ClassNode();
+                new ClassReader(serviceClass).accept(node, 0);
+                return transform.invoke(transformer, "bench.TransformedService", node);
+            }
+        });
+
+        Benchmark.run("ServiceWrapperGenerator.generateClass", 2000, new Benchmark.Operation() {
+
+            private BootClassLoader loader;
+
+            @Override
+            public void setup() throws Exception {
+                this.loader = new BootClassLoader(new URL[] { jar.toURI().toURL() });
+            }
+
+            @Override
+            public Object run(int index) throws Exception {
+                return ServiceWrapperGenerator.generateClass(Type.getObjectType("bench/Service" + index), this.loader);
+            }
+
+            @Override
+            public void teardown() throws Exception {
+                this.loader.close();
+            }
+        });
+
+        loader.close();
+    }
+
+    private static Object findClass(BootClassLoader loader, String name) throws Exception {
+        try {
+            return FIND_CLASS.invoke(loader, name);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static String className(int index) {
+        return "bench.package" + (index % 10) + ".Class" + index;
+    }
+
+    /**
+     * Writes a jar of classes spread over ten packages, one in ten of them a service.
+     */
+    /**
+     * Reads the service annotations the way the inspector of the boot loader does.
+     */
+    private static class AnnotationInspector implements IClassMetadataInspector, IConcurrentInspector {
+
+        private static final String SERVICE = Type.getDescriptor(Service.class);
+        private static final String TRACKABLE_CLASS = Type.getDescriptor(TrackableClass.class);
+
+        private final Set<String> services = new ConcurrentSkipListSet<String>();
+        private final Set<String> trackableClasses = new ConcurrentSkipListSet<String>();
+        private final Map<String, List<String>> dependencies = new ConcurrentHashMap<String, List<String>>();
+        private final Set<String> lazyServices = new ConcurrentSkipListSet<String>();
+
+        @Override
+        public void inspect(ClassMetadata metadata) {
+            Map<String, Object> service = metadata.getAnnotation(SERVICE);
+            if (service != null) {
+                List<String> dependencies = new ArrayList<String>();
+                List<?> types = (List<?>) service.get("dependencies");
+                if (types != null) {
+                    for (Object type : types) {
+                        dependencies.add(((Type) type).getClassName());
+                    }
+                }
+                this.dependencies.put(metadata.getName(), dependencies);
+                this.services.add(metadata.getName());
+                if (Boolean.TRUE.equals(service.get("lazy"))) {
+                    this.lazyServices.add(metadata.getName());
+                } else {
+                    metadata.retainBytes();
+                }
+            }
+            if (metadata.hasAnnotation(TRACKABLE_CLASS)) {
+                this.trackableClasses.add(metadata.getName());
+            }
+        }
+    }
+
+    private static File generateJar(File file, int classes) throws IOException {
+        JarOutputStream out = null;
+        try {
+            out = new JarOutputStream(new FileOutputStream(file));
+            for (int i = 0; i < classes; i++) {
+                String name = className(i).replace('.', '/');
+                out.putNextEntry(new ZipEntry(name + ".class"));
+                out.write(generateClass(name, i % 10 == 0, i >= 10 ? className(i - 10).replace('.', '/') : null));
+                out.closeEntry();
+            }
+        } finally {
+            Util.close(out);
+        }
+        return file;
+    }
+
+    private static byte[] generateClass(String name, boolean service) {
+        return generateClass(name, service, null);
+    }
+
+    /**
+     * @param dependency The service the generated service depends on, or null for none
+     */
+    private static byte[] generateClass(String name, boolean service, String dependency) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(V1_7, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+        if (service) {
+            AnnotationVisitor annotation = writer.visitAnnotation("Lnet/specialattack/loader/Service;", false);
+            if (dependency != null) {
+                AnnotationVisitor dependencies = annotation.visitArray("dependencies");
+                dependencies.visit(null, Type.getObjectType(dependency));
+                dependencies.visitEnd();
+            }
+            annotation.visitEnd();
+        }
+
+        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int i = 0; i < 20; i++) {
+            mv = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "method" + i, "(I)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ILOAD, 0);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(IADD);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+}
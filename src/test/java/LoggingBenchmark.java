@@ -0,0 +1,184 @@
+import net.specialattack.loader.logging.BinaryLogHandler;
+import net.specialattack.loader.logging.ConsoleLogFormatter;
+import net.specialattack.loader.logging.FileLogFormatter;
+import net.specialattack.loader.logging.FileLogHandler;
+import net.specialattack.loader.logging.LoggerOutputStream;
+import net.specialattack.loader.logging.LoggerPrintStream;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks of the logging path services write through when they print to System.out.
+ */
+public class LoggingBenchmark {
+
+    public static void main(String[] params) throws Exception {
+        Benchmark.header();
+
+        final ConsoleLogFormatter console = new ConsoleLogFormatter();
+        final FileLogFormatter file = new FileLogFormatter();
+        final LogRecord record = new LogRecord(Level.INFO, "Service started, listening for connections");
+        record.setLoggerName("STDOUT");
+        final LogRecord parameterized = new LogRecord(Level.WARNING, "Connection %s closed after %d ms");
+        parameterized.setLoggerName("net.specialattack.service");
+        parameterized.setParameters(new Object[] { "127.0.0.1:4000", 1500 });
+
+        Benchmark.run("ConsoleLogFormatter.format", 1000000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) {
+                record.setMillis(index);
+                return console.format(record);
+            }
+        });
+
+        Benchmark.run("ConsoleLogFormatter.format parameters", 1000000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) {
+                return console.format(parameterized);
+            }
+        });
+
+        Benchmark.run("FileLogFormatter.format", 1000000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) {
+                record.setMillis(index);
+                return file.format(record);
+            }
+        });
+
+        final FormattingHandler handler = new FormattingHandler(console);
+        Logger logger = Logger.getLogger("BENCH");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        final PrintStream stream = new PrintStream(new LoggerOutputStream(logger, Level.INFO), true);
+
+        Benchmark.run("LoggerOutputStream println", 500000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) {
+                stream.println("Service started, listening for connections");
+                return handler.length;
+            }
+        });
+
+        final PrintStream printStream = new LoggerPrintStream(logger, Level.INFO);
+
+        Benchmark.run("LoggerPrintStream println", 500000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) {
+                printStream.println("Service started, listening for connections");
+                return handler.length;
+            }
+        });
+
+        final byte[] bytes = "Service started, listening for connections\n".getBytes();
+
+        Benchmark.run("LoggerPrintStream write bytes", 500000, new Benchmark.Operation() {
+
+            @Override
+            public Object run(int index) {
+                printStream.write(bytes, 0, bytes.length);
+                return handler.length;
+            }
+        });
+
+        final LogRecord raw = new LogRecord(Level.INFO, ":nick!user@host.example.org PRIVMSG #channel :Hello there, how is everyone doing today?");
+        raw.setLoggerName("RawIRC");
+
+        RawLogOperation text = new RawLogOperation(raw) {
+
+            @Override
+            protected Handler createHandler(File file) throws Exception {
+                Handler handler = new FileLogHandler(file.getPath(), false);
+                handler.setFormatter(new FileLogFormatter());
+                return handler;
+            }
+        };
+        Benchmark.run("FileLogHandler.publish raw", 200000, text);
+
+        RawLogOperation binary = new RawLogOperation(raw) {
+
+            @Override
+            protected Handler createHandler(File file) throws Exception {
+                return new BinaryLogHandler(file.getPath(), false);
+            }
+        };
+        Benchmark.run("BinaryLogHandler.publish raw", 200000, binary);
+
+        System.out.println(String.format("raw log size: text %.1f B/record, binary %.1f B/record", text.size / 200000.0D, binary.size / 200000.0D));
+    }
+
+    /**
+     * Logs a raw IRC line to a fresh temporary file every round.
+     */
+    private static abstract class RawLogOperation extends Benchmark.Operation {
+
+        private final LogRecord record;
+        private File file;
+        private Handler handler;
+        private long size;
+
+        private RawLogOperation(LogRecord record) {
+            this.record = record;
+        }
+
+        protected abstract Handler createHandler(File file) throws Exception;
+
+        @Override
+        public void setup() throws Exception {
+            this.file = File.createTempFile("raw", ".log");
+            this.handler = this.createHandler(this.file);
+        }
+
+        @Override
+        public Object run(int index) {
+            this.record.setMillis(1400000000000L + index * 250L);
+            this.handler.publish(this.record);
+            return this.handler;
+        }
+
+        @Override
+        public void teardown() {
+            this.handler.close();
+            this.size = this.file.length();
+            this.file.delete();
+        }
+    }
+
+    /**
+     * Formats every record like the console handler does, without writing it anywhere.
+     */
+    private static class FormattingHandler extends Handler {
+
+        private final Formatter formatter;
+        private volatile int length;
+
+        private FormattingHandler(Formatter formatter) {
+            this.formatter = formatter;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            this.length += this.formatter.format(record).length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+import net.specialattack.loader.PrefixTrie;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PrefixTrieBenchmark {
+
+    private static final int[] SIZES = { 10, 100, 1000, 10000 };
+    private static final int LOOKUPS = 1 << 20;
+    private static volatile int sink;
+
+    public static void main(String[] params) {
+        Random random = new Random(42);
+        System.out.println(String.format("%8s %16s %16s", "prefixes", "linear ns/op", "trie ns/op"));
+
+        for (int size : SIZES) {
+            List<String> prefixes = new ArrayList<String>();
+            Map<String, Integer> flags = new HashMap<String, Integer>();
+            for (int i = 0; i < size; i++) {
+                String prefix = "org.example" + random.nextInt(size) + ".module" + i + ".";
+                prefixes.add(prefix);
+                flags.put(prefix, 1);
+            }
+            PrefixTrie trie = new PrefixTrie(flags);
+
+            // Half of the lookups hit an exception, half are ordinary service classes
+            String[] names = new String[1024];
+            for (int i = 0; i < names.length; i++) {
+                if ((i & 1) == 0) {
+                    names[i] = prefixes.get(random.nextInt(size)) + "SomeClass" + i;
+                } else {
+                    names[i] = "net.example.service.package" + i + ".ServiceClass";
+                }
+            }
+
+            // Warm up both paths before measuring
+            int linearLookups = Math.max(1024, LOOKUPS / size);
+            for (int i = 0; i < 5; i++) {
+                linear(prefixes, names, linearLookups);
+                trie(trie, names, LOOKUPS);
+            }
+
+            long start = System.nanoTime();
+            linear(prefixes, names, linearLookups);
+            double linear = (System.nanoTime() - start) / (double) linearLookups;
+
+            start = System.nanoTime();
+            trie(trie, names, LOOKUPS);
+            double trieTime = (System.nanoTime() - start) / (double) LOOKUPS;
+
+            System.out.println(String.format("%8d %16.1f %16.1f", size, linear, trieTime));
+        }
+    }
+
+    private static void linear(List<String> prefixes, String[] names, int lookups) {
+        int result = 0;
+        for (int i = 0; i < lookups; i++) {
+            String name = names[i & (names.length - 1)];
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix)) {
+                    result++;
+                    break;
+                }
+            }
+        }
+        sink = result;
+    }
+
+    private static void trie(PrefixTrie trie, String[] names, int lookups) {
+        int result = 0;
+        for (int i = 0; i < lookups; i++) {
+            result += trie.match(names[i & (names.length - 1)]);
+        }
+        sink = result;
+    }
+
+}